@@ -0,0 +1,26 @@
+package com.sun.maven.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Utility code for benchmarks.
+ */
+final class Benchmarks {
+    private Benchmarks() {}
+
+    static File createTempDir() throws IOException {
+        File f = File.createTempFile("junit-bench","");
+        f.delete();
+        f.mkdirs();
+        return f;
+    }
+
+    /**
+     * Classpath that contains the test fixtures.
+     */
+    static URL getClasspath() {
+        return Benchmarks.class.getProtectionDomain().getCodeSource().getLocation();
+    }
+}
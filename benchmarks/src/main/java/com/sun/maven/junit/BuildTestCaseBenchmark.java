@@ -0,0 +1,59 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.fixtures.Junit3Fixture;
+import com.sun.maven.junit.fixtures.Junit4Fixture;
+import junit.framework.Test;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LocalTestCaseRunner#buildTestCase(String)} for a JUnit 3 class and a JUnit 4 class,
+ * with and without selecting a method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BuildTestCaseBenchmark {
+    @Param({"junit3","junit4"})
+    public String style;
+
+    @Param({"","#test5"})
+    public String method;
+
+    private File reportDir;
+    private LocalTestCaseRunner runner;
+    private String fileName;
+
+    @Setup
+    public void setUp() throws IOException {
+        reportDir = Benchmarks.createTempDir();
+        runner = new LocalTestCaseRunner(reportDir);
+        runner.setUp(Collections.singletonList(Benchmarks.getClasspath()),false);
+        Class<?> c = style.equals("junit3") ? Junit3Fixture.class : Junit4Fixture.class;
+        fileName = c.getName().replace('.','/')+".class"+method;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        runner.tearDown();
+        FileUtils.deleteDirectory(reportDir);
+    }
+
+    @Benchmark
+    public Test buildTestCase() {
+        return runner.buildTestCase(fileName);
+    }
+}
@@ -0,0 +1,47 @@
+package com.sun.maven.junit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launching a JVM and establishing the channel to it, which every fork pays for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ForkBenchmark {
+    @Param({"socket","pipe"})
+    public String transport;
+
+    private TestMojo mojo;
+    private ExecutorService executors;
+
+    @Setup
+    public void setUp() {
+        mojo = new TestMojo();
+        mojo.forkTransport = transport;
+        executors = Executors.newCachedThreadPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executors.shutdownNow();
+    }
+
+    @Benchmark
+    public void forkAndConnect() throws Exception {
+        ForkedChannel ch = mojo.fork(1,executors);
+        ch.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.fixtures.Junit3Fixture;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link AntXmlFormatter} adds to each test: capturing its output and writing it to the report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+// short iterations, since every test adds to the report files
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+public class FormatterBenchmark {
+    /**
+     * Bytes of console output each test produces.
+     */
+    @Param({"0","1024"})
+    public int outputSize;
+
+    private File reportDir;
+    private AntXmlFormatter formatter;
+    private final Junit3Fixture test = new Junit3Fixture();
+    private byte[] output;
+    private PrintStream console;
+
+    @Setup
+    public void setUp() throws IOException {
+        reportDir = Benchmarks.createTempDir();
+        // the formatter copies the output to the original stdout, which is /dev/null in the quiet mode
+        console = System.out;
+        System.setOut(new PrintStream(new NullOutputStream()));
+        test.setName("test1");
+        output = new byte[outputSize];
+        Arrays.fill(output,(byte)'x');
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        formatter = new AntXmlFormatter(reportDir);
+    }
+
+    /**
+     * Reports are written in the background, so the test only waits for the disk once the queue is full.
+     */
+    @TearDown(Level.Iteration)
+    public void endIteration() throws IOException {
+        formatter.close();
+        FileUtils.cleanDirectory(reportDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(console);
+        FileUtils.deleteDirectory(reportDir);
+    }
+
+    @Benchmark
+    public void test() {
+        formatter.startTest(test);
+        System.out.write(output,0,output.length);
+        formatter.endTest(test);
+    }
+}
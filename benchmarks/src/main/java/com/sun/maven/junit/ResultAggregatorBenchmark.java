@@ -0,0 +1,75 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Failure;
+import com.sun.maven.junit.Result.Timing;
+import junit.framework.TestResult;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ResultAggregator} tallying the results of many test classes as they arrive from the forks,
+ * and restoring the {@link TestResult} at the end of a run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResultAggregatorBenchmark {
+    /**
+     * Number of test classes. Every 10th of them fails.
+     */
+    @Param({"100","1000","10000"})
+    public int classes;
+
+    /**
+     * Number of failures kept in memory. 100 is what the mojo uses, and 0 spills all of them.
+     */
+    @Param({"100","0"})
+    public int maxInMemory;
+
+    private File dir;
+    private Result[] results;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Benchmarks.createTempDir();
+        results = new Result[classes];
+        for (int i=0; i<classes; i++) {
+            Result r = new Result(10);
+            for (int j=0; j<10; j++)
+                r.timings.add(new Timing("org.acme.Test"+i,"test"+j,j,true));
+            if (i%10==0)
+                r.failures.add(new Failure("org.acme.Test"+i,new AssertionError("failed")));
+            r.reportFiles.add("org.acme.Test"+i+".1.xml");
+            results[i] = r;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public TestResult aggregate() throws IOException {
+        ResultAggregator r = new ResultAggregator(dir,maxInMemory);
+        try {
+            for (Result x : results)
+                r.add(x);
+            return r.toTestResult();
+        } finally {
+            r.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding test classes in the test output directory, the same way {@link TestMojo} does,
+ * in a tree where most class files aren't tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanBenchmark {
+    /**
+     * Number of class files in the tree.
+     */
+    @Param({"1000","10000"})
+    public int files;
+
+    private File dir;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Benchmarks.createTempDir();
+        for (int i=0; i<files; i++) {
+            // 10 classes per package, 10 packages per parent, like a typical project
+            File pkg = new File(dir,String.format("org/acme/p%d/q%d",i/100,i/10%10));
+            pkg.mkdirs();
+            String name = i%5==0 ? "Foo"+i+"Test" : i%5==1 ? "Foo"+i+"$1" : "Foo"+i;
+            new File(pkg,name+".class").createNewFile();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public int scan() {
+        FileSet fs = new FileSet();
+        fs.setDir(dir);
+        fs.setIncludes("**/*Test.class");
+        fs.setExcludes("**/*$*");
+        DirectoryScanner ds = fs.getDirectoryScanner(new Project());
+        return ds.getIncludedFiles().length;
+    }
+}
@@ -0,0 +1,48 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LocalTestCaseRunner#setUp(List, boolean)}, which creates the test class loader and the report formatter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SetUpBenchmark {
+    private File reportDir;
+    private List<URL> classpath;
+
+    @Setup
+    public void setUp() throws IOException {
+        reportDir = Benchmarks.createTempDir();
+        classpath = Collections.singletonList(Benchmarks.getClasspath());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(reportDir);
+    }
+
+    @Benchmark
+    public LocalTestCaseRunner setUpAndTearDown() {
+        LocalTestCaseRunner r = new LocalTestCaseRunner(reportDir);
+        r.setUp(classpath,false);
+        r.tearDown();
+        return r;
+    }
+}
@@ -0,0 +1,48 @@
+package com.sun.maven.junit.fixtures;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit 3 test class that {@link com.sun.maven.junit.BuildTestCaseBenchmark} builds test suites out of.
+ */
+public class Junit3Fixture extends TestCase {
+    public void test1() {
+        assertEquals(1, 1);
+    }
+
+    public void test2() {
+        assertEquals(2, 2);
+    }
+
+    public void test3() {
+        assertEquals(3, 3);
+    }
+
+    public void test4() {
+        assertEquals(4, 4);
+    }
+
+    public void test5() {
+        assertEquals(5, 5);
+    }
+
+    public void test6() {
+        assertEquals(6, 6);
+    }
+
+    public void test7() {
+        assertEquals(7, 7);
+    }
+
+    public void test8() {
+        assertEquals(8, 8);
+    }
+
+    public void test9() {
+        assertEquals(9, 9);
+    }
+
+    public void test10() {
+        assertEquals(10, 10);
+    }
+}
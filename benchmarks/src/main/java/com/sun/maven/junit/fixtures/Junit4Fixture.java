@@ -0,0 +1,60 @@
+package com.sun.maven.junit.fixtures;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JUnit 4 counterpart of {@link Junit3Fixture}.
+ */
+public class Junit4Fixture {
+    @Test
+    public void test1() {
+        assertEquals(1, 1);
+    }
+
+    @Test
+    public void test2() {
+        assertEquals(2, 2);
+    }
+
+    @Test
+    public void test3() {
+        assertEquals(3, 3);
+    }
+
+    @Test
+    public void test4() {
+        assertEquals(4, 4);
+    }
+
+    @Test
+    public void test5() {
+        assertEquals(5, 5);
+    }
+
+    @Test
+    public void test6() {
+        assertEquals(6, 6);
+    }
+
+    @Test
+    public void test7() {
+        assertEquals(7, 7);
+    }
+
+    @Test
+    public void test8() {
+        assertEquals(8, 8);
+    }
+
+    @Test
+    public void test9() {
+        assertEquals(9, 9);
+    }
+
+    @Test
+    public void test10() {
+        assertEquals(10, 10);
+    }
+}
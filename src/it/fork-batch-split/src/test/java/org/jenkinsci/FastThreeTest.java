@@ -0,0 +1,9 @@
+package org.jenkinsci;
+
+import junit.framework.TestCase;
+
+public class FastThreeTest extends TestCase {
+    public void testFast() {
+        assertTrue( true );
+    }
+}
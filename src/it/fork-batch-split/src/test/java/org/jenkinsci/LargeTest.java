@@ -0,0 +1,21 @@
+package org.jenkinsci;
+
+import junit.framework.TestCase;
+
+/**
+ * Big enough to be split into parts that run in different forks.
+ */
+public class LargeTest extends TestCase {
+    private void work() throws InterruptedException {
+        Thread.sleep(300);
+    }
+
+    public void test1() throws Exception { work(); }
+    public void test2() throws Exception { work(); }
+    public void test3() throws Exception { work(); }
+    public void test4() throws Exception { work(); }
+    public void test5() throws Exception { work(); }
+    public void test6() throws Exception { work(); }
+    public void test7() throws Exception { work(); }
+    public void test8() throws Exception { work(); }
+}
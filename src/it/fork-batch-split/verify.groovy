@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+content = new File(basedir, 'build.log').text;
+
+// both runs ran every test
+assert content.count( 'OK (11 tests)' ) == 2;
+
+// the second run split LargeTest based on the timings of the first one
+assert new File(basedir, 'target/junit-timings.db').exists();
+assert content.contains( 'Splitting 1 large test classes into smaller parts' );
+
+// no test result of LargeTest is lost, even when its parts run in different forks
+['target/surefire-reports', 'target/second-reports'].each { dir ->
+    def testcases = 0;
+    new File(basedir, dir).eachFileMatch(~/.*\.xml/) { f ->
+        testcases += new XmlSlurper().parse(f).'**'.findAll { it.name() == 'testcase' && it.@classname == 'org.jenkinsci.LargeTest' }.size();
+    }
+    assert testcases == 8 : "${dir} has ${testcases} test cases of LargeTest";
+}
+
+// forks were replaced. concurrency=2 launches 3 JVMs up front (2 workers and a spare) even without recycling
+def launched = (content =~ /Launched (\d+) JVMs/).collect { it[1] as int };
+assert launched.size() == 2;
+assert launched.every { it > 3 } : "launched ${launched} JVMs";
+
+return true;
@@ -1,31 +1,100 @@
 package com.sun.maven.junit;
 
-import com.sun.istack.test.ForkOutputStream;
 import junit.framework.AssertionFailedError;
 import junit.framework.Test;
 import junit.framework.TestListener;
-import org.apache.tools.ant.taskdefs.optional.junit.JUnitResultFormatter;
-import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
 import org.apache.tools.ant.taskdefs.optional.junit.JUnitVersionHelper;
 import org.junit.runner.Describable;
+import org.junit.runner.Description;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * {@link TestListener} that bridges to {@link JUnitResultFormatter}.
+ * {@link TestListener} that writes XML reports in the same format as Ant's XML formatter.
+ *
+ * <p>
+ * Tests of the same class that run back to back go to the same report file, which is written
+ * as the tests complete.
+ * Tests can run concurrently on different threads, so the state of the test in progress,
+ * the report file being written, and the captured output are kept per thread.
  *
  * @author Kohsuke Kawaguchi
  */
 public class AntXmlFormatter implements TestListener, Closeable {
-    private JUnitResultFormatter antf;
-    private JUnitTest antTest; // Ant wants this
-    private final Class<? extends JUnitResultFormatter> formatter;
-    private long startTime;
+    /**
+     * The test in progress on a thread.
+     */
+    private static final class Running {
+        final String className;
+        final Suite suite;
+        final long startTime = System.currentTimeMillis();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        Running(String className, Suite suite) {
+            this.className = className;
+            this.suite = suite;
+        }
+    }
+
+    /**
+     * Report file of a test class, or the one that aggregates everything.
+     */
+    private static final class Suite {
+        /**
+         * Name of the test suite. null if writing a fragment.
+         */
+        final String name;
+        final File file;
+        final boolean compress;
+        /**
+         * Opened lazily. Only accessed from the report writer thread.
+         */
+        private XmlReportWriter writer;
+        private boolean closed;
+
+        Suite(String name, File file, boolean compress) {
+            this.name = name;
+            this.file = file;
+            this.compress = compress;
+        }
+
+        XmlReportWriter getWriter() throws IOException {
+            if (writer==null)
+                writer = new XmlReportWriter(file,name,compress);
+            return writer;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Marks this suite as closed, and returns true if this call did it.
+         */
+        synchronized boolean markClosed() {
+            if (closed)     return false;
+            return closed = true;
+        }
+    }
+
+    private final ThreadLocal<Running> running = new ThreadLocal<Running>();
+    private final ThreadLocal<Suite> suite = new ThreadLocal<Suite>();
+    /**
+     * Report files that are still being written.
+     */
+    private final List<Suite> openSuites = new ArrayList<Suite>();
+
+    /**
+     * Report files are written in the background.
+     */
+    private final ReportQueue writer = new ReportQueue(QUEUE_SIZE);
 
     private final File dir;
 
@@ -34,74 +103,185 @@ public class AntXmlFormatter implements TestListener, Closeable {
      */
     private final PrintStream out,err;
 
-    private final ByteArrayOutputStream outBuf = new ByteArrayOutputStream();
-    private final ByteArrayOutputStream errBuf = new ByteArrayOutputStream();
+    private final ThreadCaptureStream outBuf;
+    private final ThreadCaptureStream errBuf;
 
-    private int id = 0;
+    private final AtomicInteger id = new AtomicInteger();
+    /**
+     * See {@link #setReportId(String)}.
+     */
+    private String reportId = "";
+
+    /**
+     * See {@link #setReportFormat(boolean, String, String)}.
+     */
+    private boolean compress;
+    private Suite aggregate;
 
-    public AntXmlFormatter(Class<? extends JUnitResultFormatter> formatter, File dir) {
-        this.formatter = formatter;
+    /**
+     * Names of the report files written since the last {@link #drainReportFiles()}.
+     */
+    private final List<String> reportFiles = new ArrayList<String>();
+
+    public AntXmlFormatter(File dir) {
+        this(dir,DEFAULT_MEMORY_LIMIT,0);
+    }
+
+    /**
+     * @param memoryLimit
+     *      Output of a test beyond this many bytes is kept in a temporary file instead of in memory.
+     * @param maxOutputSize
+     *      Output of a test beyond this many bytes is truncated in the report, keeping the beginning and the end.
+     *      0 for no limit.
+     */
+    public AntXmlFormatter(File dir, int memoryLimit, long maxOutputSize) {
         this.dir = dir;
 
         out = System.out;
         err = System.err;
-        System.setOut(new PrintStream(new ForkOutputStream(outBuf,out)));
-        System.setErr(new PrintStream(new ForkOutputStream(errBuf,err)));
+        outBuf = new ThreadCaptureStream(out,memoryLimit,maxOutputSize);
+        errBuf = new ThreadCaptureStream(err,memoryLimit,maxOutputSize);
+        System.setOut(new PrintStream(outBuf));
+        System.setErr(new PrintStream(errBuf));
+    }
+
+    /**
+     * Changes how the reports are written. Needs to be called before the first test.
+     *
+     * @param compress
+     *      gzip the reports.
+     * @param aggregateFile
+     *      If non-null, the results of all the tests go into this one report file, instead of a file per test class.
+     * @param suiteName
+     *      Name of the test suite in the aggregated report, or null to only write the test cases into it,
+     *      to be merged into another report later by {@link XmlReportWriter#append(File)}.
+     */
+    public void setReportFormat(boolean compress, String aggregateFile, String suiteName) {
+        this.compress = compress;
+        if (aggregateFile!=null)
+            aggregate = new Suite(suiteName, new File(dir,aggregateFile), compress && suiteName!=null);
     }
 
     public void close() {
-        // restore
-        System.setOut(out);
-        System.setErr(err);
+        try {
+            if (aggregate!=null)
+                endSuite(aggregate);
+            endSuites();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                throw new Error(e);
+            }
+            // restore
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    /**
+     * Completes all the report files being written, and waits for them to hit the disk.
+     */
+    public void endSuites() {
+        Suite[] all;
+        synchronized (openSuites) {
+            all = openSuites.toArray(new Suite[openSuites.size()]);
+            openSuites.clear();
+        }
+        for (Suite s : all)
+            endSuite(s);
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+    }
+
+    private void endSuite(final Suite s) {
+        if (!s.markClosed())    return;
+        writer.submit(new ReportQueue.Job() {
+            public void run() throws IOException {
+                s.getWriter().close();
+            }
+        });
     }
 
     public void addError(Test test, Throwable t) {
-        antf.addError(test,t);
-        antTest.setCounts(1,0,1);
+        running.get().errors.add(t);
     }
 
     public void addFailure(Test test, AssertionFailedError t) {
-        antf.addFailure(test,t);
-        antTest.setCounts(1,1,0);
+        running.get().failures.add(t);
+    }
+
+    /**
+     * Puts the given ID into the names of the report files, to keep them apart from those written by
+     * other formatters into the same directory, such as in other forks. Needs to be called before the first test.
+     */
+    public void setReportId(String reportId) {
+        this.reportId = reportId==null ? "" : reportId+'-';
     }
 
     public void startTest(Test test) {
-        assert antf==null;
-        try {
-            antf = formatter.newInstance();
-        } catch (InstantiationException e) {
-            throw new InstantiationError(e.getMessage());
-        } catch (IllegalAccessException e) {
-            throw new IllegalAccessError(e.getMessage());
-        }
+        assert running.get()==null;
+        String className = getClassName(test);
 
-        String testName = getTestName(test);
+        Suite s = aggregate;
+        if (s==null) {
+            s = suite.get();
+            if (s==null || s.isClosed() || !s.name.equals(className)) {
+                if (s!=null) {
+                    synchronized (openSuites) {
+                        openSuites.remove(s);
+                    }
+                    endSuite(s);
+                }
 
-        antTest = new JUnitTest(testName);
-        antTest.setCounts(1,0,0);
-        try {
-            antf.setOutput(new FileOutputStream(new File(dir,getResultFileName(testName))));
-        } catch (FileNotFoundException e) {
-            throw new Error(e);
+                String fileName = getResultFileName(className);
+                synchronized (reportFiles) {
+                    reportFiles.add(compress ? fileName+".gz" : fileName);
+                }
+                s = new Suite(className, new File(dir,fileName), compress);
+                suite.set(s);
+                synchronized (openSuites) {
+                    openSuites.add(s);
+                }
+            }
         }
-        antf.startTestSuite(antTest);
-        antf.startTest(test);
-        outBuf.reset();
-        errBuf.reset();
-        startTime = System.currentTimeMillis();
+
+        running.set(new Running(className,s));
+        outBuf.start();
+        errBuf.start();
     }
 
-    private String getTestName(Test test) {
-    	if (test instanceof Describable) {
-    		return ((Describable) test).getDescription().getDisplayName();
-    	}
-        String testName = JUnitVersionHelper.getTestCaseName(test);
-        if(testName==null)      testName="unknown";
+    /**
+     * Returns the names of the report files written since the last invocation, relative to the report directory.
+     * The reports in progress are completed first.
+     */
+    public List<String> drainReportFiles() {
+        endSuites();
+        synchronized (reportFiles) {
+            List<String> r = new ArrayList<String>(reportFiles);
+            reportFiles.clear();
+            return r;
+        }
+    }
 
-        if(testName.indexOf('.')==-1)
-            testName = test.getClass().getName()+"."+testName;
+    static String getClassName(Test test) {
+        if (test instanceof Describable) {
+            String n = ((Describable)test).getDescription().getClassName();
+            if (n!=null)    return n;
+        }
+        return JUnitVersionHelper.getTestCaseClassName(test);
+    }
 
-        return testName;
+    private static String getTestName(Test test) {
+        if (test instanceof Describable) {
+            Description d = ((Describable)test).getDescription();
+            return d.getMethodName()!=null ? d.getMethodName() : d.getDisplayName();
+        }
+        String testName = JUnitVersionHelper.getTestCaseName(test);
+        return testName!=null ? testName : "unknown";
     }
 
     private String getResultFileName(String testName) {
@@ -116,7 +296,8 @@ public class AntXmlFormatter implements TestListener, Closeable {
                 sb.setCharAt(i,'_');
         }
         sb.append('.');
-        sb.append(id++);
+        sb.append(reportId);
+        sb.append(id.getAndIncrement());
         sb.append(".xml");
         return sb.toString();
     }
@@ -125,16 +306,36 @@ public class AntXmlFormatter implements TestListener, Closeable {
         return start<=ch && ch<=end;
     }
 
-    public void endTest(Test test) {
-        antf.endTest(test);
-
-        antf.setSystemOutput(outBuf.toString());
-        antf.setSystemError(errBuf.toString());
-        antTest.setRunTime(System.currentTimeMillis()-startTime);
-        antf.endTestSuite(antTest);
-
-        antf = null;
-        antTest = null;
+    public void endTest(final Test test) {
+        final Running r = running.get();
+        running.remove();
+        final long time = System.currentTimeMillis()-r.startTime;
+        final CaptureBuffer o = outBuf.stop(), e = errBuf.stop();
+        final String testName = getTestName(test);
+        writer.submit(new ReportQueue.Job() {
+            public void run() throws IOException {
+                try {
+                    XmlReportWriter w = r.suite.getWriter();
+                    w.startTestCase(r.className, testName, time);
+                    for (Throwable t : r.failures)
+                        w.failure(t,false);
+                    for (Throwable t : r.errors)
+                        w.failure(t,true);
+                    w.output("system-out",o);
+                    w.output("system-err",e);
+                    w.endTestCase();
+                } finally {
+                    if (o!=null)    o.close();
+                    if (e!=null)    e.close();
+                }
+            }
+        });
     }
 
+    public static final int DEFAULT_MEMORY_LIMIT = 1024*1024;
+
+    /**
+     * Number of test results that can be waiting to be written.
+     */
+    private static final int QUEUE_SIZE = 256;
 }
@@ -0,0 +1,204 @@
+package com.sun.maven.junit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Captured output of a test.
+ *
+ * <p>
+ * Up to a certain size the data is kept in memory, and beyond that it goes to a temporary file,
+ * so that a chatty test doesn't run the JVM out of memory. When read back, the output can be
+ * truncated to keep just the beginning and the end.
+ *
+ * <p>
+ * This class is thread-safe. {@link #close()} must be called to discard the temporary file.
+ */
+final class CaptureBuffer extends OutputStream {
+    private final int memoryLimit;
+    private final long maxSize;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private File file;
+    private OutputStream fileOut;
+    private long size;
+    private boolean closed;
+
+    /**
+     * @param memoryLimit
+     *      Number of bytes to keep in memory before switching to a file.
+     * @param maxSize
+     *      Number of bytes to return from {@link #writeTo(OutputStream)}, or 0 for no limit.
+     */
+    CaptureBuffer(int memoryLimit, long maxSize) {
+        this.memoryLimit = memoryLimit;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte)b},0,1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed)     return; // a straggler from a background thread
+        if (memory!=null && size+len>memoryLimit) {
+            // time to spill to the disk
+            file = File.createTempFile("junit-output",".txt");
+            file.deleteOnExit();
+            fileOut = new BufferedOutputStream(new FileOutputStream(file));
+            memory.writeTo(fileOut);
+            memory = null;
+        }
+        if (memory!=null)   memory.write(b,off,len);
+        else                fileOut.write(b,off,len);
+        size += len;
+    }
+
+    /**
+     * Number of bytes captured, including the part that {@link #writeTo(OutputStream)} would omit.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Sends the captured output to the given stream. If it's longer than the limit, the middle portion
+     * is replaced by a note of how much was left out.
+     */
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        if (maxSize<=0 || size<=maxSize) {
+            copy(0,size,out);
+        } else {
+            long half = maxSize/2;
+            copy(0,half,out);
+            out.write(String.format("%n... %d bytes omitted ...%n", size-half*2).getBytes());
+            copy(size-half,half,out);
+        }
+    }
+
+    /**
+     * Decodes the captured output in the platform default encoding (which is what {@link System#out} uses),
+     * and sends it to the given writer, truncated just like {@link #writeTo(OutputStream)} does.
+     */
+    public synchronized void writeTo(final Writer w) throws IOException {
+        final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer in = ByteBuffer.allocate(8192);
+        final CharBuffer out = CharBuffer.allocate(8192);
+
+        class Decoder extends OutputStream {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte)b},0,1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len>0) {
+                    int n = Math.min(len,in.remaining());
+                    in.put(b,off,n);
+                    off += n;
+                    len -= n;
+                    in.flip();
+                    decode(false);
+                    in.compact();
+                }
+            }
+
+            void decode(boolean endOfInput) throws IOException {
+                while (true) {
+                    CoderResult cr = decoder.decode(in,out,endOfInput);
+                    drain();
+                    if (!cr.isOverflow())   break;
+                }
+            }
+
+            void drain() throws IOException {
+                out.flip();
+                w.write(out.array(),0,out.limit());
+                out.clear();
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.flip();
+                decode(true);
+                decoder.flush(out);
+                drain();
+            }
+        }
+
+        Decoder d = new Decoder();
+        writeTo(d);
+        d.close();
+    }
+
+    private void copy(long start, long len, OutputStream out) throws IOException {
+        if (memory!=null) {
+            out.write(memory.toByteArray(),(int)start,(int)len);
+            return;
+        }
+
+        fileOut.flush();
+        RandomAccessFile in = new RandomAccessFile(file,"r");
+        try {
+            in.seek(start);
+            byte[] buf = new byte[8192];
+            while (len>0) {
+                int n = in.read(buf,0,(int)Math.min(buf.length,len));
+                if (n<0)    break;
+                out.write(buf,0,n);
+                len -= n;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the captured output, truncated just like {@link #writeTo(OutputStream)} does.
+     */
+    @Override
+    public synchronized String toString() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            writeTo(baos);
+        } catch (IOException e) {
+            return e.toString();    // we lost the data
+        }
+        return baos.toString();
+    }
+
+    /**
+     * Discards the captured data.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        memory = null;
+        if (file!=null) {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                // we are just throwing it away
+            }
+            file.delete();
+            file = null;
+        }
+    }
+}
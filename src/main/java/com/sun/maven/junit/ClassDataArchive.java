@@ -0,0 +1,110 @@
+package com.sun.maven.junit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Class data sharing archive for the forked JVMs.
+ *
+ * <p>
+ * The first fork launched without an archive is used to train one: it dumps the classes it loaded
+ * into the archive when it exits, and the forks launched after that start with the archive mapped in,
+ * which saves them from loading and verifying those classes from scratch.
+ *
+ * <p>
+ * The archive is keyed by the JVM and the classpath, so a change in either of them simply results in
+ * a new archive. The JVM itself also validates the archive upon start up, and with {@code -Xshare:auto}
+ * it falls back to the normal class loading if the archive is unusable.
+ * Archives of the other keys are deleted once a new one is in place, as they are unlikely to be used again.
+ */
+final class ClassDataArchive {
+    private final File dir;
+    private final File file;
+    private final File training;
+    private boolean trainerLaunched;
+
+    /**
+     * @param dir
+     *      Directory to keep archives in.
+     * @param classpath
+     *      Classpath of the forked JVM.
+     * @param jvmArgs
+     *      Other JVM options, which could affect the validity of the archive.
+     */
+    public ClassDataArchive(File dir, String classpath, String jvmArgs) {
+        Digester d = new Digester();
+        d.update(System.getProperty("java.home"));
+        d.update(System.getProperty("java.vm.version"));
+        d.update(jvmArgs);
+        StringTokenizer tokens = new StringTokenizer(classpath,File.pathSeparator);
+        while (tokens.hasMoreTokens()) {
+            File f = new File(tokens.nextToken());
+            d.update(f.getPath()).update(f.length()).update(f.lastModified());
+        }
+
+        dir.mkdirs();
+        this.dir = dir;
+        String key = d.toString();
+        this.file = new File(dir,key+".jsa");
+        this.training = new File(dir,key+".jsa.tmp");
+    }
+
+    /**
+     * Returns the JVM options to launch a new fork with.
+     */
+    public synchronized List<String> getJvmArguments() {
+        List<String> args = new ArrayList<String>();
+        if (file.length()>0) {
+            args.add("-XX:SharedArchiveFile="+file.getAbsolutePath());
+            args.add("-Xshare:auto");
+        } else
+        if (!trainerLaunched) {
+            trainerLaunched = true;
+            training.delete();
+            args.add("-XX:ArchiveClassesAtExit="+training.getAbsolutePath());
+        } else {
+            return Collections.emptyList(); // someone else is training, and we can't wait
+        }
+        // classes from the test class loader can't be archived. don't let the JVM complain about them
+        args.add("-Xlog:cds=off");
+        args.add("-Xlog:cds+dynamic=off");
+        return args;
+    }
+
+    /**
+     * Called when a forked JVM exits, to put the newly trained archive into use.
+     */
+    public synchronized void onExit() {
+        if (training.length()>0 && !file.exists() && training.renameTo(file))
+            deleteOthers();
+    }
+
+    /**
+     * Deletes archives other than ours, including unfinished ones.
+     */
+    private void deleteOthers() {
+        File[] files = dir.listFiles();
+        if (files==null)    return;
+        for (File f : files) {
+            String n = f.getName();
+            if ((n.endsWith(".jsa") || n.endsWith(".jsa.tmp")) && !f.equals(file) && !f.equals(training))
+                f.delete();
+        }
+    }
+
+    /**
+     * Does the current JVM support dynamic archives? That requires Java 13.
+     */
+    public static boolean isSupported() {
+        String v = System.getProperty("java.specification.version");
+        if (v.startsWith("1."))     return false;   // 1.8 and earlier
+        try {
+            return Integer.parseInt(v)>=13;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
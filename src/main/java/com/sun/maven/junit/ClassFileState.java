@@ -0,0 +1,128 @@
+package com.sun.maven.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Timestamp, size and digest of the test class files as of the last run, to tell which ones have changed since.
+ *
+ * <p>
+ * The contents are only looked at when the timestamp has changed but the size hasn't,
+ * such as after a clean build, which recompiles everything to the same bytes.
+ */
+final class ClassFileState {
+    private static final class Entry {
+        long timestamp;
+        final long length;
+        final String digest;
+
+        Entry(long timestamp, long length, String digest) {
+            this.timestamp = timestamp;
+            this.length = length;
+            this.digest = digest;
+        }
+    }
+
+    private final File file;
+    /**
+     * Class file name to its state.
+     */
+    private final Map<String,Entry> classes = new HashMap<String,Entry>();
+
+    ClassFileState(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the data from the disk, if it's there.
+     * A missing or broken file is treated as everything having changed.
+     */
+    public ClassFileState load() {
+        classes.clear();
+        if (!file.exists())     return this;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt()!=MAGIC)    return this;
+                int n = in.readInt();
+                for (int i=0; i<n; i++)
+                    classes.put(in.readUTF(), new Entry(in.readLong(),in.readLong(),in.readUTF()));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // corrupted. start afresh
+            classes.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Has the given class file changed since it was last {@linkplain #update(String, File) recorded}?
+     * A class file that wasn't recorded counts as changed.
+     *
+     * @param name
+     *      Class file name relative to the class directory root.
+     */
+    public boolean hasChanged(String name, File classFile) {
+        Entry e = classes.get(name);
+        if (e==null || e.length!=classFile.length())    return true;
+        if (e.timestamp==classFile.lastModified())      return false;
+        try {
+            if (!e.digest.equals(digest(classFile)))    return true;
+        } catch (IOException x) {
+            return true;
+        }
+        e.timestamp = classFile.lastModified(); // same contents. no need to look again
+        return false;
+    }
+
+    /**
+     * Records the current state of the given class file.
+     */
+    public void update(String name, File classFile) throws IOException {
+        long timestamp = classFile.lastModified();
+        long length = classFile.length();
+        Entry e = classes.get(name);
+        if (e!=null && e.timestamp==timestamp && e.length==length)
+            return; // the digest is still good
+        classes.put(name, new Entry(timestamp, length, digest(classFile)));
+    }
+
+    private static String digest(File classFile) throws IOException {
+        return new Digester().update(classFile).toString();
+    }
+
+    public void save() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = new File(dir, file.getName()+".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(classes.size());
+            for (Map.Entry<String,Entry> e : classes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().timestamp);
+                out.writeLong(e.getValue().length);
+                out.writeUTF(e.getValue().digest);
+            }
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to rename "+tmp+" to "+file);
+    }
+
+    private static final int MAGIC = 0x4A435332; // "JCS2"
+}
@@ -0,0 +1,347 @@
+package com.sun.maven.junit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class-level dependency graph of the project, along with the content hash of each class file.
+ *
+ * <p>
+ * Dependencies are discovered by looking at the constant pool of class files, which lists every
+ * class that the code refers to (either directly or through a type descriptor.) Comparing two indices
+ * tells us which classes have changed, and the graph tells us which test classes could be affected by
+ * those changes.
+ *
+ * <p>
+ * Dependencies through reflection (such as {@code Class.forName("...")} with a string constant) are not
+ * detected.
+ */
+final class DependencyIndex {
+    private static final class Node {
+        final String name;
+        final String hash;
+        /**
+         * Names of the project classes that this class refers to.
+         */
+        final Set<String> deps = new HashSet<String>();
+
+        Node(String name, String hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Captures everything outside the class directories that could affect the tests, such as jar files.
+     * Any change in it means we have to run everything.
+     */
+    private final String signature;
+    private final Map<String,Node> nodes = new HashMap<String,Node>();
+
+    private DependencyIndex(String signature) {
+        this.signature = signature;
+    }
+
+    /**
+     * Loads the index from the disk, or returns null if it's not there or unreadable.
+     */
+    public static DependencyIndex load(File file) {
+        if (!file.exists())     return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt()!=MAGIC)    return null;
+                DependencyIndex idx = new DependencyIndex(in.readUTF());
+                int n = in.readInt();
+                for (int i=0; i<n; i++) {
+                    Node node = new Node(in.readUTF(),in.readUTF());
+                    int m = in.readInt();
+                    for (int j=0; j<m; j++)
+                        node.deps.add(in.readUTF());
+                    idx.nodes.put(node.name,node);
+                }
+                return idx;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void save(File file) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(signature);
+            out.writeInt(nodes.size());
+            for (Node n : nodes.values()) {
+                out.writeUTF(n.name);
+                out.writeUTF(n.hash);
+                out.writeInt(n.deps.size());
+                for (String d : n.deps)
+                    out.writeUTF(d);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Scans the class directories and builds the index.
+     *
+     * @param dirs
+     *      Class directories to scan.
+     * @param signature
+     *      See {@link #signature}.
+     * @param previous
+     *      The previous index if available. Classes that haven't changed since then are not parsed again.
+     */
+    public static DependencyIndex build(Collection<File> dirs, String signature, DependencyIndex previous) throws IOException {
+        DependencyIndex idx = new DependencyIndex(signature);
+        Map<String,Set<String>> refs = new HashMap<String,Set<String>>();
+        for (File dir : dirs)
+            idx.scan(dir, "", previous, refs);
+
+        // only keep the dependencies to the classes in the project
+        for (Node n : idx.nodes.values()) {
+            Set<String> r = refs.get(n.name);
+            if (r==null) {
+                // reused from the previous index, which can refer to a class that's gone since
+                n.deps.retainAll(idx.nodes.keySet());
+                continue;
+            }
+            for (String d : r)
+                if (!d.equals(n.name) && idx.nodes.containsKey(d))
+                    n.deps.add(d);
+        }
+        return idx;
+    }
+
+    private void scan(File dir, String prefix, DependencyIndex previous, Map<String,Set<String>> refs) throws IOException {
+        File[] children = dir.listFiles();
+        if (children==null)     return;
+        for (File f : children) {
+            String name = f.getName();
+            if (f.isDirectory()) {
+                scan(f, prefix+name+'.', previous, refs);
+                continue;
+            }
+            if (!name.endsWith(".class"))   continue;
+
+            String className = prefix+name.substring(0,name.length()-".class".length());
+            Node n = new Node(className, new Digester().update(f).toString());
+            Node old = previous!=null ? previous.nodes.get(className) : null;
+            if (old!=null && old.hash.equals(n.hash))
+                n.deps.addAll(old.deps);
+            else
+                refs.put(className, parseReferences(f));
+            nodes.put(className,n);
+        }
+    }
+
+    /**
+     * Returns true if the environment outside the class directories is the same as the given index.
+     */
+    public boolean isCompatibleWith(DependencyIndex that) {
+        return signature.equals(that.signature);
+    }
+
+    /**
+     * Computes the classes that are affected by the changes since the given old index,
+     * which includes classes that changed themselves and classes that depend on them transitively.
+     */
+    public Set<String> getAffectedClasses(DependencyIndex old) {
+        return getDependants(getChangedClasses(old), reverse());
+    }
+
+    /**
+     * Returns the index to compare the next run with, after a run that only tested some of the classes
+     * affected by the changes since the given old index.
+     *
+     * <p>
+     * A change is taken in if all the test classes it affects were tested. Otherwise the class is recorded
+     * as it was in the old index, so that the next run still sees it as changed.
+     *
+     * @param testClasses
+     *      Names of all the test classes, tested or not.
+     * @param tested
+     *      Names of the test classes that ran and passed.
+     */
+    public DependencyIndex mergeTested(DependencyIndex old, Set<String> testClasses, Set<String> tested) {
+        Map<String,List<String>> dependants = reverse();
+        DependencyIndex r = new DependencyIndex(signature);
+        r.nodes.putAll(nodes);
+        for (String c : getChangedClasses(old)) {
+            for (String a : getDependants(Collections.singleton(c), dependants)) {
+                if (testClasses.contains(a) && !tested.contains(a)) {
+                    Node o = old.nodes.get(c);
+                    if (o==null)    r.nodes.remove(c);
+                    else            r.nodes.put(c,o);
+                    break;
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Reverses the graph, so that we can walk from changes to the classes that depend on them.
+     */
+    private Map<String,List<String>> reverse() {
+        Map<String,List<String>> dependants = new HashMap<String,List<String>>();
+        for (Node n : nodes.values()) {
+            for (String d : n.deps) {
+                List<String> l = dependants.get(d);
+                if (l==null)
+                    dependants.put(d,l=new ArrayList<String>());
+                l.add(n.name);
+            }
+        }
+        return dependants;
+    }
+
+    /**
+     * Classes that have changed since the given old index themselves.
+     */
+    private Set<String> getChangedClasses(DependencyIndex old) {
+        Set<String> changed = new HashSet<String>();
+        for (Node n : nodes.values()) {
+            Node o = old.nodes.get(n.name);
+            if (o==null || !o.hash.equals(n.hash))
+                changed.add(n.name);
+        }
+        // classes that referred to a deleted class are found through the old graph
+        for (Node o : old.nodes.values()) {
+            for (String d : o.deps)
+                if (!nodes.containsKey(d) && nodes.containsKey(o.name))
+                    changed.add(o.name);
+        }
+        return changed;
+    }
+
+    /**
+     * The given classes and those that depend on them transitively.
+     */
+    private static Set<String> getDependants(Collection<String> classes, Map<String,List<String>> dependants) {
+        Set<String> r = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>(classes);
+        while (!queue.isEmpty()) {
+            String c = queue.removeFirst();
+            if (!r.add(c))  continue;
+            List<String> l = dependants.get(c);
+            if (l!=null)
+                queue.addAll(l);
+        }
+        return r;
+    }
+
+    /**
+     * Lists up all the class names that the given class file refers to, by looking at its constant pool.
+     */
+    static Set<String> parseReferences(File classFile) throws IOException {
+        Set<String> refs = new HashSet<String>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)));
+        try {
+            if (in.readInt()!=0xCAFEBABE)
+                return refs;    // not a class file
+            in.readUnsignedShort(); // minor
+            in.readUnsignedShort(); // major
+
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            List<Integer> classRefs = new ArrayList<Integer>();
+            for (int i=1; i<count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                case 1:     // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:     // Class
+                    classRefs.add(in.readUnsignedShort());
+                    break;
+                case 8:     // String
+                case 16:    // MethodType
+                case 19:    // Module
+                case 20:    // Package
+                    in.readUnsignedShort();
+                    break;
+                case 15:    // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3:     // Integer
+                case 4:     // Float
+                case 9:     // Fieldref
+                case 10:    // Methodref
+                case 11:    // InterfaceMethodref
+                case 12:    // NameAndType
+                case 17:    // Dynamic
+                case 18:    // InvokeDynamic
+                    in.readInt();
+                    break;
+                case 5:     // Long
+                case 6:     // Double
+                    in.readLong();
+                    i++;    // takes two slots
+                    break;
+                default:
+                    throw new IOException("Unexpected constant pool tag "+tag+" in "+classFile);
+                }
+            }
+
+            for (int idx : classRefs) {
+                String n = utf8[idx];
+                if (n==null)    continue;
+                if (n.startsWith("["))
+                    addDescriptorTypes(n,refs); // array type
+                else
+                    refs.add(n.replace('/','.'));
+            }
+            // type descriptors of fields, methods and annotations
+            for (String s : utf8)
+                if (s!=null && s.indexOf(';')>0)
+                    addDescriptorTypes(s,refs);
+        } finally {
+            in.close();
+        }
+        return refs;
+    }
+
+    /**
+     * Picks up "Lfoo/Bar;" in a descriptor or a signature.
+     */
+    private static void addDescriptorTypes(String desc, Set<String> refs) {
+        int idx = 0;
+        while ((idx=desc.indexOf('L',idx))>=0) {
+            int end = idx+1;
+            while (end<desc.length() && isNameChar(desc.charAt(end)))
+                end++;
+            if (end<desc.length() && end>idx+1 && (desc.charAt(end)==';' || desc.charAt(end)=='<'))
+                refs.add(desc.substring(idx+1,end).replace('/','.'));
+            idx = end;
+        }
+    }
+
+    private static boolean isNameChar(char ch) {
+        return ch=='/' || ch=='$' || Character.isJavaIdentifierPart(ch);
+    }
+
+    private static final int MAGIC = 0x4A444931; // "JDI1"
+}
@@ -0,0 +1,69 @@
+package com.sun.maven.junit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes a SHA-1 digest over a series of values, to be used as a cache key.
+ */
+final class Digester {
+    private final MessageDigest md;
+
+    public Digester() {
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e); // impossible
+        }
+    }
+
+    public Digester update(String s) {
+        try {
+            md.update(String.valueOf(s).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e); // impossible
+        }
+        md.update((byte)0); // so that "ab"+"c" and "a"+"bc" differ
+        return this;
+    }
+
+    public Digester update(long v) {
+        for (int i=0; i<8; i++)
+            md.update((byte)(v>>(i*8)));
+        return this;
+    }
+
+    /**
+     * Digests the contents of the given file.
+     */
+    public Digester update(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len=in.read(buf))>=0)
+                md.update(buf,0,len);
+        } finally {
+            in.close();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the digest in hex, and resets this object.
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (byte b : md.digest()) {
+            buf.append(Character.forDigit((b>>4)&0xF,16));
+            buf.append(Character.forDigit(b&0xF,16));
+        }
+        return buf.toString();
+    }
+}
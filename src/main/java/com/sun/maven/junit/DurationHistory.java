@@ -0,0 +1,244 @@
+package com.sun.maven.junit;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Execution time of test classes observed in the earlier runs.
+ *
+ * <p>
+ * This is used to run the long test classes first, so that a long test
+ * doesn't get started at the very end while all the other workers are sitting idle.
+ */
+final class DurationHistory {
+    /**
+     * Test class name to its execution time in milliseconds.
+     */
+    private final Map<String,Long> durations = new HashMap<String,Long>();
+
+    /**
+     * Computed lazily from {@link #durations}.
+     */
+    private long defaultEstimate = -1;
+
+    /**
+     * Adds the execution time of a test (or a part of it) to the given class.
+     */
+    public void add(String className, long millis) {
+        Long v = durations.get(className);
+        durations.put(className, v==null ? millis : v+millis);
+        defaultEstimate = -1;
+    }
+
+    public boolean isEmpty() {
+        return durations.isEmpty();
+    }
+
+    /**
+     * Returns true if the duration of this class was actually observed,
+     * as opposed to being a guess.
+     */
+    public boolean isKnown(String className) {
+        return durations.containsKey(className);
+    }
+
+    /**
+     * Estimates the execution time of the given test class in milliseconds.
+     *
+     * <p>
+     * Classes that we haven't seen before are assumed to be a typical test,
+     * which is the median of all the classes that we know of.
+     */
+    public long estimate(String className) {
+        Long v = durations.get(className);
+        if (v!=null)    return v;
+
+        if (defaultEstimate<0) {
+            if (durations.isEmpty()) {
+                defaultEstimate = DEFAULT_ESTIMATE;
+            } else {
+                List<Long> all = new ArrayList<Long>(durations.values());
+                Collections.sort(all);
+                defaultEstimate = all.get(all.size()/2);
+            }
+        }
+        return defaultEstimate;
+    }
+
+    /**
+     * Sorts the test class files so that the longest ones come first.
+     * The sort is stable, so the order among the classes of the same estimate is preserved.
+     *
+     * @param classFiles
+     *      File names of the test classes, relative to the class directory root.
+     */
+    public void sortLongestFirst(List<String> classFiles) {
+        final Map<String,Long> estimates = new HashMap<String,Long>();
+        for (String f : classFiles)
+            estimates.put(f, estimate(toClassName(f)));
+
+        Collections.sort(classFiles, new Comparator<String>() {
+            public int compare(String o1, String o2) {
+                long l = estimates.get(o1);
+                long r = estimates.get(o2);
+                return l<r ? 1 : l>r ? -1 : 0;
+            }
+        });
+    }
+
+    /**
+     * Converts a file name of a class file to a class name.
+     */
+    static String toClassName(String fileName) {
+        if (fileName.endsWith(".class"))
+            fileName = fileName.substring(0,fileName.length()-".class".length());
+        return fileName.replace('/','.').replace('\\','.');
+    }
+
+    /**
+     * Recovers the execution time from the XML reports that {@link AntXmlFormatter} left in the given directory.
+     * Reports that can't be parsed are silently ignored.
+     *
+     * <p>
+     * Only the per-class reports count. The aggregated ones (such as "TEST-all.xml") would count the same tests
+     * twice. A class can have several reports from the same run, such as one per test method
+     * in the older versions, or one per part of a split class. They are all added up.
+     * When the directory isn't cleaned between runs, the reports of the earlier runs are told apart by
+     * their time stamps, and ignored. The classes that no longer exist are ignored, too.
+     *
+     * @param classDir
+     *      Directory of the test class files, to tell if a class still exists.
+     */
+    public static DurationHistory fromReports(File dir, File classDir) {
+        DurationHistory h = new DurationHistory();
+
+        File[] files = dir.listFiles();
+        if (files==null)    return h;   // no report yet
+
+        SAXParser parser;
+        try {
+            parser = SAXParserFactory.newInstance().newSAXParser();
+        } catch (ParserConfigurationException e) {
+            throw new Error(e); // impossible
+        } catch (SAXException e) {
+            throw new Error(e); // impossible
+        }
+
+        // execution time of each class in the report being parsed
+        final Map<String,Long> times = new HashMap<String,Long>();
+        DefaultHandler handler = new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes atts) {
+                if (!qName.equals("testcase"))  return;
+                String className = atts.getValue("classname");
+                String time = atts.getValue("time");
+                if (className==null || time==null)  return;
+                try {
+                    Long v = times.get(className);
+                    long t = (long)(Double.parseDouble(time)*1000);
+                    times.put(className, v==null ? t : v+t);
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            }
+        };
+
+        // class name to the time stamps and the execution times of its reports
+        Map<String,List<long[]>> reports = new HashMap<String,List<long[]>>();
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.endsWith(".xml") && !name.endsWith(".xml.gz"))  continue;
+            if (name.startsWith(AGGREGATE_PREFIX))  continue;
+
+            times.clear();
+            try {
+                InputStream in = new BufferedInputStream(new FileInputStream(f));
+                try {
+                    if (name.endsWith(".gz"))
+                        in = new GZIPInputStream(in);
+                    parser.parse(in, handler);
+                } finally {
+                    in.close();
+                }
+            } catch (SAXException e) {
+                continue;   // broken report. ignore
+            } catch (IOException e) {
+                continue;   // ditto
+            }
+
+            for (Map.Entry<String,Long> e : times.entrySet()) {
+                String className = e.getKey();
+                List<long[]> l = reports.get(className);
+                if (l==null)
+                    reports.put(className, l=new ArrayList<long[]>());
+                l.add(new long[]{f.lastModified(), e.getValue()});
+            }
+        }
+
+        for (Map.Entry<String,List<long[]>> e : reports.entrySet()) {
+            String className = e.getKey();
+            if (!new File(classDir, className.replace('.','/')+".class").exists())  continue;   // stale
+            h.durations.put(className, sumLastRun(e.getValue()));
+        }
+        return h;
+    }
+
+    /**
+     * Adds up the execution times of the reports of a class that were written in the latest run.
+     *
+     * <p>
+     * Going back from the newest report, the reports of the same run were written while the class was running,
+     * so each one is at most as old as the time spent on the reports after it. Anything older is from an earlier run.
+     *
+     * @param reports
+     *      Time stamp and execution time of each report, in milliseconds.
+     */
+    static long sumLastRun(List<long[]> reports) {
+        Collections.sort(reports, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return a[0]<b[0] ? 1 : a[0]>b[0] ? -1 : 0;
+            }
+        });
+        long newest = reports.get(0)[0];
+        long total = 0;
+        for (long[] r : reports) {
+            if (r[0]<newest-total-RUN_SLACK)
+                break;  // an earlier run
+            total += r[1];
+        }
+        return total;
+    }
+
+    /**
+     * Allowance for the time that isn't in the reports, such as setting up the test class and writing
+     * the reports, when telling the reports of a run apart from those of the earlier ones. In milliseconds.
+     */
+    private static final long RUN_SLACK = 10000;
+
+    /**
+     * Reports whose file names start with this have the results of many test classes.
+     */
+    static final String AGGREGATE_PREFIX = "TEST-";
+
+    /**
+     * Estimate for a test class when we know nothing, in milliseconds.
+     */
+    public static final long DEFAULT_ESTIMATE = 1000;
+}
@@ -0,0 +1,91 @@
+package com.sun.maven.junit;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestListener;
+import junit.framework.TestResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops running tests in this JVM once a certain number of them have failed.
+ *
+ * <p>
+ * This calls {@link TestResult#stop()}, which makes JUnit 3 test suites stop at the next test.
+ * Test classes wrapped by {@link #wrap(Test, String)} that haven't started by then are skipped,
+ * even when they run in {@link org.kohsuke.junit.ParallelTestSuite}, which doesn't check for it on its own.
+ * JUnit 4 test classes that are already running can't be stopped, and run to the end.
+ */
+final class FailFast implements TestListener {
+    private final int threshold;
+    private final AtomicInteger failures = new AtomicInteger();
+    /**
+     * The result that the tests are running with, to be stopped.
+     */
+    private volatile TestResult result;
+    private final List<String> skipped = Collections.synchronizedList(new ArrayList<String>());
+
+    FailFast(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Wraps a test class so that it gets skipped once the tests are stopped.
+     *
+     * @param classFile
+     *      Reported by {@link #getSkipped()} if skipped.
+     */
+    public Test wrap(final Test test, final String classFile) {
+        return new Test() {
+            public int countTestCases() {
+                return test.countTestCases();
+            }
+
+            public void run(TestResult r) {
+                result = r;
+                if (r.shouldStop()) {
+                    skipped.add(classFile);
+                    return;
+                }
+                test.run(r);
+            }
+
+            @Override
+            public String toString() {
+                return test.toString();
+            }
+        };
+    }
+
+    /**
+     * Test classes that were skipped.
+     */
+    public List<String> getSkipped() {
+        return new ArrayList<String>(skipped);
+    }
+
+    public void addError(Test test, Throwable t) {
+        failed();
+    }
+
+    public void addFailure(Test test, AssertionFailedError t) {
+        failed();
+    }
+
+    private void failed() {
+        if (failures.incrementAndGet()>=threshold) {
+            TestResult r = result;
+            if (r!=null)
+                r.stop();
+        }
+    }
+
+    public void startTest(Test test) {
+    }
+
+    public void endTest(Test test) {
+    }
+}
@@ -0,0 +1,91 @@
+package com.sun.maven.junit;
+
+import hudson.remoting.ProxyException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns exceptions thrown by tests into {@link ProxyException}s that are cheap to send over the channel.
+ *
+ * <p>
+ * Frames of the test framework are trimmed off, and the same stack frames and identical traces
+ * are represented by the same objects, so that Java serialization sends them only once.
+ * This matters when a broken fixture fails thousands of tests in the same way.
+ *
+ * <p>
+ * Sharing only works within one serialized object graph, so an instance is meant to be used for
+ * one batch of results.
+ */
+final class FailureCompactor {
+    /**
+     * Frames whose "className.methodName" starts with one of these are removed. Empty to keep everything.
+     */
+    private final List<String> filters;
+    private final Map<StackTraceElement,StackTraceElement> frames = new HashMap<StackTraceElement,StackTraceElement>();
+    private final Map<String,ProxyException> traces = new HashMap<String,ProxyException>();
+
+    FailureCompactor(List<String> filters) {
+        this.filters = filters;
+    }
+
+    public ProxyException compact(Throwable t) {
+        ProxyException p = new ProxyException(t);
+        StringBuilder key = new StringBuilder();
+        for (Throwable x=p; x!=null; x=x.getCause()) {
+            x.setStackTrace(compact(x.getStackTrace()));
+            key.append(x.getMessage()).append('\n');
+            for (StackTraceElement e : x.getStackTrace())
+                key.append(e).append('\n');
+        }
+
+        ProxyException existing = traces.get(key.toString());
+        if (existing!=null)     return existing;
+        traces.put(key.toString(),p);
+        return p;
+    }
+
+    private StackTraceElement[] compact(StackTraceElement[] trace) {
+        List<StackTraceElement> r = new ArrayList<StackTraceElement>(trace.length);
+        for (StackTraceElement e : trace) {
+            if (isFiltered(e))  continue;
+            StackTraceElement i = frames.get(e);
+            if (i==null)
+                frames.put(e,i=e);
+            r.add(i);
+        }
+        if (r.isEmpty() && trace.length>0)
+            return trace;   // nothing but the framework. better show it than nothing
+        return r.toArray(new StackTraceElement[r.size()]);
+    }
+
+    private boolean isFiltered(StackTraceElement e) {
+        if (filters.isEmpty())  return false;
+        String name = e.getClassName()+'.'+e.getMethodName();
+        for (String f : filters)
+            if (name.startsWith(f))
+                return true;
+        return false;
+    }
+
+    /**
+     * Frames that are trimmed by default, which are those of JUnit, reflection, and this plugin.
+     */
+    public static final List<String> DEFAULT_FILTERS = Arrays.asList(
+        "junit.framework.TestCase.",
+        "junit.framework.TestResult",
+        "junit.framework.TestSuite.",
+        "junit.framework.Assert.",
+        "junit.framework.JUnit4TestAdapter",
+        "org.junit.",
+        "java.lang.reflect.Method.invoke",
+        "sun.reflect.",
+        "jdk.internal.reflect.",
+        "com.sun.maven.junit.",
+        "org.kohsuke.junit.",
+        "hudson.remoting."
+    );
+}
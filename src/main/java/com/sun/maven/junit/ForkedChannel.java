@@ -0,0 +1,62 @@
+package com.sun.maven.junit;
+
+import hudson.remoting.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link Channel} to a child JVM launched by {@link TestMojo#fork(int, ExecutorService)}.
+ *
+ * <p>
+ * The process is tied to the life of the channel.
+ */
+public class ForkedChannel extends Channel {
+    private final Process proc;
+    private final OutputMultiplexer.Source output;
+    private final ClassDataArchive cds;
+
+    /**
+     * @param header
+     *      Receives whatever comes from the input stream before the channel starts.
+     */
+    ForkedChannel(String name, ExecutorService exec, InputStream is, OutputStream os, OutputStream header, Process proc, OutputMultiplexer.Source output, ClassDataArchive cds) throws IOException {
+        super(name, exec, is, os, header);
+        this.proc = proc;
+        this.output = output;
+        this.cds = cds;
+    }
+
+    /**
+     * Forcibly kills the child process, which severs the channel and aborts all the pending calls.
+     */
+    public void kill() {
+        proc.destroy();
+    }
+
+    /**
+     * Kill the process when the channel is severed.
+     */
+    @Override
+    protected synchronized void terminate(IOException e) {
+        super.terminate(e);
+        proc.destroy();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        // wait for the process to complete
+        try {
+            proc.waitFor();
+            output.join();
+            if (cds!=null)
+                cds.onExit();
+        } catch (InterruptedException e) {
+            // process the interrupt later
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.sun.maven.junit;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestListener;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shows the progress of the whole run on the console, in place of the dots printed by each JVM.
+ *
+ * <p>
+ * Workers only update the counters, and the console is updated by a separate thread at a fixed interval,
+ * so that the number of workers and tests doesn't affect how much time goes to rendering.
+ * On a terminal, the status line is rewritten in place. Otherwise it's printed as a new line, less frequently.
+ * What each worker is running is printed periodically.
+ *
+ * <p>
+ * Anything else that prints to the console while this is running, such as the output of the forks,
+ * needs to go through {@link #getConsole()}, or else it gets mixed up with the status line.
+ */
+final class LiveProgress extends Thread {
+    /**
+     * What a worker is running.
+     */
+    private static final class InFlight {
+        final String name;
+        final long estimate;
+        final long startTime = System.currentTimeMillis();
+
+        InFlight(String name, long estimate) {
+            this.name = name;
+            this.estimate = estimate;
+        }
+    }
+
+    private final PrintStream out;
+    private final DurationHistory history;
+    private final int concurrency;
+    private final boolean interactive = System.console()!=null;
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Worker name to what it's running. Guarded by this object.
+     */
+    private final Map<String,InFlight> inFlight = new TreeMap<String,InFlight>();
+    private int totalClasses, classesDone, testsDone;
+    /**
+     * Estimated execution time of the test classes that haven't started yet, in milliseconds.
+     */
+    private long pendingEstimate;
+
+    /**
+     * Length of the status line last printed on the terminal.
+     */
+    private int lastWidth;
+    /**
+     * True if what's written through {@link #getConsole()} ends in the middle of a line,
+     * in which case the status line has to wait.
+     */
+    private boolean midLine;
+
+    private volatile boolean closed;
+
+    LiveProgress(PrintStream out, DurationHistory history, int concurrency) {
+        super("progress reporter");
+        this.out = out;
+        this.history = history;
+        this.concurrency = concurrency;
+        setDaemon(true);
+    }
+
+    /**
+     * Sets the test classes to run.
+     *
+     * @param classFiles
+     *      File names of the test classes, relative to the class directory root.
+     */
+    public synchronized void setTestClasses(List<String> classFiles) {
+        totalClasses = classFiles.size();
+        pendingEstimate = 0;
+        for (String f : classFiles)
+            pendingEstimate += estimate(f);
+    }
+
+    /**
+     * Called when a worker starts running the given test classes.
+     *
+     * @param name
+     *      Shown to the user as what the worker is running.
+     */
+    public synchronized void started(String worker, String name, List<String> classFiles) {
+        long e = 0;
+        for (String f : classFiles)
+            e += estimate(f);
+        started(worker,name,e);
+    }
+
+    private synchronized void started(String worker, String name, long estimate) {
+        pendingEstimate -= estimate;
+        inFlight.put(worker, new InFlight(name,estimate));
+    }
+
+    /**
+     * Called when a worker finishes what it was running.
+     */
+    public synchronized void finished(String worker, int classes, int tests) {
+        inFlight.remove(worker);
+        classesDone += classes;
+        testsDone += tests;
+    }
+
+    /**
+     * Called for test classes that completed without running, such as those whose result was cached.
+     */
+    public synchronized void skipped(List<String> classFiles) {
+        for (String f : classFiles)
+            pendingEstimate -= estimate(f);
+        classesDone += classFiles.size();
+    }
+
+    /**
+     * Called when all the workers are done, to count the test classes they were still on.
+     * The listener from {@link #createListener()} only notices that a test class is finished
+     * when the next one starts on the same thread.
+     */
+    public synchronized void finishAll() {
+        classesDone += inFlight.size();
+        inFlight.clear();
+    }
+
+    private long estimate(String classFile) {
+        return history.estimate(DurationHistory.toClassName(classFile));
+    }
+
+    /**
+     * Listener that reports tests run in this JVM, when not forking.
+     * Each thread is a worker, and the test class it's running is the unit of work.
+     */
+    public TestListener createListener() {
+        final ThreadLocal<String> current = new ThreadLocal<String>();
+        return new TestListener() {
+            public void startTest(Test test) {
+                String c = AntXmlFormatter.getClassName(test);
+                if (!c.equals(current.get())) {
+                    String worker = Thread.currentThread().getName();
+                    if (current.get()!=null)
+                        finished(worker,1,0);
+                    current.set(c);
+                    started(worker, c, history.estimate(c));
+                }
+            }
+
+            public void endTest(Test test) {
+                synchronized (LiveProgress.this) {
+                    testsDone++;
+                }
+            }
+
+            public void addError(Test test, Throwable t) {
+            }
+
+            public void addFailure(Test test, AssertionFailedError t) {
+            }
+        };
+    }
+
+    /**
+     * Stream to print to the console through while this is running.
+     * The status line is erased before what's written, and printed again at the next update.
+     */
+    public OutputStream getConsole() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte)b},0,1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (len==0)     return;
+                synchronized (LiveProgress.this) {
+                    erase();
+                    out.write(b,off,len);
+                    midLine = b[off+len-1]!='\n';
+                }
+            }
+
+            @Override
+            public void flush() {
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * Stops updating the console, and prints the final status.
+     */
+    public void close() throws InterruptedException {
+        if (closed)     return;
+        closed = true;
+        interrupt();
+        join();
+        synchronized (this) {
+            String line = String.format("Ran %d tests in %s", testsDone, formatTime(System.currentTimeMillis()-startTime));
+            if (midLine)
+                out.println();
+            if (interactive) {
+                rewrite(line);
+                out.println();
+                lastWidth = 0;
+            } else {
+                out.println(line);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long interval = interactive ? INTERACTIVE_INTERVAL : BATCH_INTERVAL;
+        long lastTable = System.currentTimeMillis();
+        while (!closed) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (midLine)    continue;   // wait for the rest of the line
+                if (now-lastTable>=TABLE_INTERVAL && !inFlight.isEmpty()) {
+                    if (interactive) {
+                        out.println();
+                        lastWidth = 0;
+                    }
+                    for (Map.Entry<String,InFlight> e : inFlight.entrySet())
+                        out.println(String.format("  %-20s %s (%s)", e.getKey(), e.getValue().name, formatTime(now-e.getValue().startTime)));
+                    lastTable = now;
+                }
+
+                String line = getStatus(now);
+                if (interactive)    rewrite(line);
+                else                out.println(line);
+            }
+        }
+    }
+
+    /**
+     * Removes the status line from the terminal.
+     */
+    private void erase() {
+        if (!interactive || lastWidth==0)   return;
+        StringBuilder b = new StringBuilder("\r");
+        for (int i=0; i<lastWidth; i++)
+            b.append(' ');
+        out.print(b.append('\r'));
+        lastWidth = 0;
+    }
+
+    /**
+     * Replaces the status line on the terminal.
+     */
+    private void rewrite(String line) {
+        // pad to erase the remains of a longer status line
+        StringBuilder b = new StringBuilder("\r").append(line);
+        for (int i=line.length(); i<lastWidth; i++)
+            b.append(' ');
+        out.print(b);
+        out.flush();
+        lastWidth = line.length();
+    }
+
+    private String getStatus(long now) {
+        long elapsed = now-startTime;
+        StringBuilder b = new StringBuilder();
+        b.append(String.format("%d/%d classes, %d tests, %.1f tests/s",
+                classesDone, totalClasses, testsDone, elapsed>0 ? testsDone*1000.0/elapsed : 0.0));
+
+        // the work that remains, spread over the workers
+        long remaining = pendingEstimate;
+        InFlight slowest = null;
+        for (InFlight f : inFlight.values()) {
+            remaining += Math.max(0, f.estimate-(now-f.startTime));
+            if (slowest==null || f.startTime<slowest.startTime)
+                slowest = f;
+        }
+        b.append(", ETA ").append(formatTime(remaining/Math.max(1,concurrency)));
+        if (slowest!=null)
+            b.append(", slowest: ").append(slowest.name).append(" (").append(formatTime(now-slowest.startTime)).append(')');
+        return b.toString();
+    }
+
+    private static String formatTime(long ms) {
+        long s = ms/1000;
+        if (s<60)   return s+"s";
+        if (s<3600) return String.format("%dm%02ds", s/60, s%60);
+        return String.format("%dh%02dm", s/3600, s/60%60);
+    }
+
+    /**
+     * How often the status line is updated, in milliseconds, when the console is a terminal.
+     */
+    private static final long INTERACTIVE_INTERVAL = 500;
+
+    /**
+     * How often the status line is printed, in milliseconds, when the console is redirected to a file.
+     */
+    private static final long BATCH_INTERVAL = 10000;
+
+    /**
+     * How often what each worker is running is printed, in milliseconds.
+     */
+    private static final long TABLE_INTERVAL = 30000;
+}
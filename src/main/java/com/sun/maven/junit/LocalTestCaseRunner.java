@@ -5,22 +5,33 @@ import hudson.remoting.Channel;
 import junit.framework.JUnit4TestAdapter;
 import junit.framework.Test;
 import junit.framework.TestCase;
+import junit.framework.TestListener;
 import junit.framework.TestResult;
 import junit.framework.TestSuite;
 import org.apache.commons.io.output.NullOutputStream;
-import org.apache.tools.ant.taskdefs.optional.junit.XMLJUnitResultFormatter;
 import org.codehaus.plexus.util.SelectorUtils;
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * {@link TestCaseRunner} that runs tests on the current JVM.
@@ -36,29 +47,171 @@ public class LocalTestCaseRunner implements TestCaseRunner, Serializable {
     /**
      * ClassLoader for running tests. Set up later.
      */
-    private transient ClassLoader cl;
+    private transient TestClassLoader cl;
 
     private transient PrintStream progress;
     private AntXmlFormatter formatter;
 
+    /**
+     * See {@link AntXmlFormatter#AntXmlFormatter(File, int, long)}.
+     */
+    private int outputMemoryLimit = AntXmlFormatter.DEFAULT_MEMORY_LIMIT;
+    private long maxOutputSize;
+
+    /**
+     * See {@link AntXmlFormatter#setReportFormat(boolean, String, String)}.
+     */
+    private boolean compressReports;
+    private String aggregateReport, aggregateSuiteName;
+    /**
+     * See {@link AntXmlFormatter#setReportId(String)}.
+     */
+    private String reportId;
+
+    /**
+     * See {@link FailureCompactor#filters}.
+     */
+    private ArrayList<String> stackTraceFilters = new ArrayList<String>();
+
+    private Tracer tracer = Tracer.DISABLED;
+
+    /**
+     * Print a dot for each test. See {@link ProgressReporter}.
+     */
+    private boolean progressDots = true;
+
     public LocalTestCaseRunner(File reportDirectory) {
         this.reportDirectory = reportDirectory;
     }
 
+    /**
+     * Bounds the memory used to capture the output of each test.
+     * Needs to be called before {@link #setUp(List, boolean)}.
+     */
+    public void setOutputLimits(int memoryLimit, long maxOutputSize) {
+        this.outputMemoryLimit = memoryLimit;
+        this.maxOutputSize = maxOutputSize;
+    }
+
+    /**
+     * Stack frames of failures that start with one of these prefixes are trimmed
+     * before the results are sent back.
+     */
+    public void setStackTraceFilters(List<String> filters) {
+        this.stackTraceFilters = new ArrayList<String>(filters);
+    }
+
+    /**
+     * Changes how the reports are written. Needs to be called before {@link #setUp(List, boolean)}.
+     *
+     * @see AntXmlFormatter#setReportFormat(boolean, String, String)
+     */
+    public void setReportFormat(boolean compress, String aggregateFile, String suiteName) {
+        this.compressReports = compress;
+        this.aggregateReport = aggregateFile;
+        this.aggregateSuiteName = suiteName;
+    }
+
+    /**
+     * Distinguishes the report files from those of the other runners writing into the same directory.
+     * Needs to be called before {@link #setUp(List, boolean)}.
+     *
+     * @see AntXmlFormatter#setReportId(String)
+     */
+    public void setReportId(String reportId) {
+        this.reportId = reportId;
+    }
+
+    /**
+     * Records the phases of the test execution. The spans are sent back in {@link Result#spans}.
+     * Needs to be called before {@link #setUp(List, boolean)}.
+     */
+    void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Turns off the dots that show the progress, for when the progress is shown in another way.
+     */
+    public void setProgressDots(boolean dots) {
+        this.progressDots = dots;
+    }
+
     public void setUp(List<URL> classpath, boolean quiet) {
+        long t = tracer.start();
         // bootstrap class path + junit
-        cl = new URLClassLoader(classpath.toArray(new URL[classpath.size()]),new JUnitSharingClassLoader(null,getClass().getClassLoader()));
+        cl = new TestClassLoader(classpath.toArray(new URL[classpath.size()]),new JUnitSharingClassLoader(null,getClass().getClassLoader()));
         progress = System.out;
         if (quiet) redirectToDevNull();
-        formatter = new AntXmlFormatter(XMLJUnitResultFormatter.class, reportDirectory);
+        formatter = new AntXmlFormatter(reportDirectory, outputMemoryLimit, maxOutputSize);
+        formatter.setReportFormat(compressReports, aggregateReport, aggregateSuiteName);
+        formatter.setReportId(reportId);
+        tracer.end(t,"setUp","setUp");
     }
 
     public Result runTestCase(String fileName) {
-        return runTestCase( fileName, null );
+        return runTestCase( fileName, new FailureCompactor(stackTraceFilters) );
     }
-    
+
+    /**
+     * Runs the given method of a test case, or the whole test case if the method name is null.
+     * Same as {@link #runTestCase(String)} with "fileName#methodName".
+     */
     public Result runTestCase(String fileName, String methodName) {
-        return Result.from(runTests(buildTestCase(fileName),progress));
+        return runTestCase( methodName==null ? fileName : fileName+"#"+methodName );
+    }
+    
+    public void preload(List<String> classNames) {
+        for (String name : classNames) {
+            try {
+                Class.forName(name,false,cl);
+            } catch (ClassNotFoundException e) {
+                // the class is gone since the last run. ignore
+            } catch (LinkageError e) {
+                // let the test that actually needs it report the problem
+            }
+        }
+    }
+
+    public List<String> getLoadedClasses() {
+        return cl.getLoadedClasses();
+    }
+
+    public long getHeapUsage() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage u = pool.getCollectionUsage();
+            if (pool.getType()==MemoryType.HEAP && u!=null)
+                used += u.getUsed();
+        }
+        return used;
+    }
+
+    public List<Result> runTestCases(List<String> fileNames) {
+        List<Result> results = new ArrayList<Result>(fileNames.size());
+        FailureCompactor compactor = new FailureCompactor(stackTraceFilters); // share within the batch
+        for (String fileName : fileNames)
+            results.add(runTestCase(fileName,compactor));
+        return results;
+    }
+
+    private Result runTestCase(String fileName, FailureCompactor compactor) {
+        long start = System.currentTimeMillis();
+        TimingRecorder timings = new TimingRecorder();
+        formatter.drainReportFiles();
+        Test test = buildTestCase(fileName);
+
+        long t = tracer.start();
+        Result r = Result.from(runTests(test,progress,timings),compactor);
+        tracer.end(t,"test",fileName);
+
+        r.timings.addAll(timings.getTimings());
+        r.duration = System.currentTimeMillis()-start;
+        t = tracer.start();
+        r.reportFiles.addAll(formatter.drainReportFiles());
+        tracer.end(t,"report",fileName);
+        r.spans = tracer.drain();
+        return r;
     }    
     
 
@@ -73,14 +226,18 @@ public class LocalTestCaseRunner implements TestCaseRunner, Serializable {
     }
 
     public Test buildTestCase(String fileName) {
-        int index = fileName.indexOf( '#' );
-        String methodName = null;
-        if (index>=0) {
-            methodName = fileName.substring( index + 1, fileName.length() );
-            return buildMethodTestCase( fileName.substring( 0, index ), methodName );
+        long t = tracer.start();
+        try {
+            int index = fileName.indexOf( '#' );
+            String methodName = null;
+            if (index>=0) {
+                methodName = fileName.substring( index + 1, fileName.length() );
+                return buildMethodTestCase( fileName.substring( 0, index ), methodName );
+            }
+            return buildMethodTestCase( fileName, methodName );
+        } finally {
+            tracer.end(t,"load",fileName);
         }
-        return buildMethodTestCase( fileName, methodName );
-        
     }
     
     private Test buildMethodTestCase(String fileName, String methodName) {
@@ -111,28 +268,124 @@ public class LocalTestCaseRunner implements TestCaseRunner, Serializable {
                 }
                 TestSuite test = new TestSuite();
                 for (Method m : c.getMethods()) {
-                    if (SelectorUtils.match( methodName, m.getName() ) ) {
+                    if (matches( methodName, m.getName() ) ) {
                         test.addTest( TestSuite.createTest( c, m.getName() ) );
                     }
                 }
                 return test;
             } else {
-                return new JUnit4TestAdapter(c);
+                JUnit4TestAdapter test = new JUnit4TestAdapter(c);
+                if (methodName != null) {
+                    try {
+                        test.filter(new MethodFilter(methodName));
+                    } catch (NoTestsRemainException e) {
+                        return EMPTY;
+                    }
+                }
+                return test;
             }
         } catch (ClassNotFoundException e) {
             return new FailedTest(e);
         }
     }    
+
+    /**
+     * Checks if the method name matches the pattern, which can list several patterns separated by '+',
+     * such as "testFoo+testBar*".
+     */
+    private static boolean matches(String methodPattern, String methodName) {
+        for (String p : methodPattern.split("\\+"))
+            if (SelectorUtils.match(p, methodName))
+                return true;
+        return false;
+    }
+
+    /**
+     * Selects JUnit4 tests by their method names.
+     */
+    private static final class MethodFilter extends Filter {
+        private final String methodPattern;
+
+        MethodFilter(String methodPattern) {
+            this.methodPattern = methodPattern;
+        }
+
+        @Override
+        public boolean shouldRun(Description d) {
+            if (d.isTest())
+                return d.getMethodName()!=null && matches(methodPattern, d.getMethodName());
+            for (Description child : d.getChildren())
+                if (shouldRun(child))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public String describe() {
+            return "methods "+methodPattern;
+        }
+    }
+
+    public Map<String,List<String>> listTestMethods(List<String> fileNames) {
+        Map<String,List<String>> r = new HashMap<String,List<String>>();
+        for (String fileName : fileNames) {
+            Set<String> names = new LinkedHashSet<String>();
+            try {
+                Class<?> c = cl.loadClass(toClassName(fileName));
+                if (isTest(c) && !hasSuiteMethod(c)) {
+                    if (TestCase.class.isAssignableFrom(c)) {
+                        TestSuite suite = new TestSuite(c);
+                        for (int i=0; i<suite.testCount(); i++) {
+                            Test t = suite.testAt(i);
+                            if (t.getClass()==c)  // skip the "warning" test TestSuite adds when there's a problem
+                                names.add(((TestCase)t).getName());
+                        }
+                    } else {
+                        listTestMethods(new JUnit4TestAdapter(c).getDescription(), names);
+                    }
+                }
+            } catch (ClassNotFoundException e) {
+                // let the test execution report the problem
+            } catch (LinkageError e) {
+                // ditto
+            }
+            r.put(fileName, new ArrayList<String>(names));
+        }
+        return r;
+    }
+
+    private void listTestMethods(Description d, Set<String> names) {
+        if (d.isTest()) {
+            if (d.getMethodName()!=null)
+                names.add(d.getMethodName());
+        } else {
+            for (Description child : d.getChildren())
+                listTestMethods(child, names);
+        }
+    }
+
+    private boolean hasSuiteMethod(Class<?> c) {
+        try {
+            return Modifier.isStatic(c.getDeclaredMethod("suite").getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
     
     
 
     /**
      * Run tests and send the progress report to the given {@link PrintStream}.
+     *
+     * @param listeners
+     *      Additional listeners that get notified of the test execution.
      */
-    public TestResult runTests(Test all, PrintStream report) {
+    public TestResult runTests(Test all, PrintStream report, TestListener... listeners) {
         TestResult tr = new TestResult();
         tr.addListener(formatter);
-        tr.addListener(new ProgressReporter(report));
+        tr.addListener(new ProgressReporter(report,progressDots));
+        for (TestListener l : listeners)
+            tr.addListener(l);
 
         Thread t = Thread.currentThread();
         ClassLoader old = t.getContextClassLoader();
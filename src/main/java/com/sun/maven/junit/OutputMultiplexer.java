@@ -0,0 +1,281 @@
+package com.sun.maven.junit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Copies the console output of all the forked JVMs to one stream, with a single thread.
+ *
+ * <p>
+ * Output is assembled into lines, so that lines from different forks don't get mixed up,
+ * and each line can be prefixed to tell which fork it came from.
+ *
+ * <p>
+ * Process pipes can't be used with a selector, so this thread polls them with {@link InputStream#available()}
+ * and never blocks in a read. It backs off when there's nothing to read, which delays a line by at most
+ * {@link #MAX_BACKOFF}. That's fine for the console, since test results come through the channel, not here.
+ * When there's no process to watch, the thread sleeps until one is added.
+ */
+final class OutputMultiplexer extends Thread {
+    /**
+     * Output of one process.
+     */
+    final class Source {
+        private final byte[] prefix;
+        private final InputStream in;
+        private final Process proc;
+        /**
+         * Incomplete line read so far.
+         */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean done;
+
+        Source(String prefix, InputStream in, Process proc) {
+            this.prefix = prefix.getBytes();
+            this.in = in;
+            this.proc = proc;
+        }
+
+        /**
+         * Waits until all the output of the process is copied.
+         */
+        public synchronized void join() throws InterruptedException {
+            while (!done)
+                wait();
+        }
+
+        private synchronized void finish() {
+            done = true;
+            notifyAll();
+        }
+    }
+
+    private final OutputStream out;
+    private final List<Source> sources = new CopyOnWriteArrayList<Source>();
+    private final byte[] buf = new byte[8192];
+    private volatile boolean closed;
+    /**
+     * Set when the sources that didn't finish within {@link #CLOSE_TIMEOUT} are given up on.
+     */
+    private volatile boolean abandoned;
+
+    /**
+     * Lines beyond this many per second are dropped. 0 for no limit.
+     */
+    private final int maxLinesPerSecond;
+    private long window;
+    private int linesInWindow;
+    private int suppressed;
+
+    /**
+     * @param maxLinesPerSecond
+     *      Lines beyond this many per second are dropped, for when nobody is really reading the output.
+     *      0 for no limit.
+     */
+    OutputMultiplexer(OutputStream out, int maxLinesPerSecond) {
+        super("fork output multiplexer");
+        this.out = new BufferedOutputStream(out,BUFFER_SIZE);
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        setDaemon(true);
+    }
+
+    /**
+     * Starts copying the output of a process.
+     *
+     * @param prefix
+     *      Prepended to every line.
+     */
+    public Source add(String prefix, InputStream in, Process proc) {
+        Source s = new Source(prefix,in,proc);
+        synchronized (sources) {
+            sources.add(s);
+            sources.notifyAll();
+        }
+        return s;
+    }
+
+    /**
+     * Waits for all the sources to finish and stops the thread.
+     *
+     * <p>
+     * A source can stay open even after its process is gone, such as when a process that the fork
+     * launched keeps the pipe open. The sources still open after {@link #CLOSE_TIMEOUT} are abandoned.
+     */
+    public void close() throws InterruptedException {
+        synchronized (sources) {
+            closed = true;
+            sources.notifyAll();
+        }
+        join(CLOSE_TIMEOUT);
+        if (isAlive()) {
+            abandoned = true;
+            join();
+        }
+    }
+
+    @Override
+    public void run() {
+        long backoff = 1;
+        try {
+            while (!abandoned) {
+                boolean busy = false;
+                for (Source s : sources)
+                    busy |= pump(s);
+
+                if (busy) {
+                    out.flush();
+                    backoff = 1;
+                    continue;
+                }
+
+                synchronized (sources) {
+                    if (sources.isEmpty()) {
+                        if (closed)     break;
+                        sources.wait(); // nothing to watch until a fork is launched
+                        continue;
+                    }
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff*2, MAX_BACKOFF);
+            }
+
+            // whatever is left of the abandoned sources
+            for (Source s : sources) {
+                if (s.line.size()>0) {
+                    s.line.write('\n');
+                    emit(s);
+                }
+            }
+            flushSuppressed();
+            out.flush();
+        } catch (IOException e) {
+            // the console is gone. nothing we can do
+        } catch (InterruptedException e) {
+            // shut down
+        } finally {
+            for (Source s : sources)
+                s.finish();
+        }
+    }
+
+    /**
+     * Copies whatever is available from the given source.
+     *
+     * @return
+     *      true if there was something to do.
+     */
+    private boolean pump(Source s) throws IOException {
+        try {
+            int n = s.in.available();
+            if (n>0) {
+                read(s,n);
+                if (s.prefix.length==0 && s.line.size()>0) {
+                    // no need to wait for the rest of the line, such as progress dots
+                    s.line.writeTo(out);
+                    s.line.reset();
+                }
+                return true;
+            }
+        } catch (IOException e) {
+            // the pipe is broken, which means the process is gone
+            remove(s);
+            return true;
+        }
+
+        if (!hasExited(s.proc))
+            return false;
+        // anything the process wrote before exiting is available by now
+        try {
+            int n;
+            while ((n=s.in.available())>0)
+                read(s,n);
+        } catch (IOException e) {
+            // the pipe is already closed
+        }
+        remove(s);
+        return true;
+    }
+
+    /**
+     * Reads up to the given number of bytes, which is known to be available, and emits complete lines.
+     */
+    private void read(Source s, int n) throws IOException {
+        n = s.in.read(buf,0,Math.min(n,buf.length));
+        for (int i=0; i<n; i++) {
+            s.line.write(buf[i]);
+            if (buf[i]=='\n' || s.line.size()>=MAX_LINE)
+                emit(s);
+        }
+    }
+
+    private void remove(Source s) throws IOException {
+        if (s.line.size()>0) {
+            s.line.write('\n');
+            emit(s);
+        }
+        sources.remove(s);
+        try {
+            s.in.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        s.finish();
+    }
+
+    private void emit(Source s) throws IOException {
+        if (maxLinesPerSecond>0) {
+            long now = System.currentTimeMillis()/1000;
+            if (now!=window) {
+                window = now;
+                linesInWindow = 0;
+                flushSuppressed();
+            }
+            if (++linesInWindow>maxLinesPerSecond) {
+                suppressed++;
+                s.line.reset();
+                return;
+            }
+        }
+        out.write(s.prefix);
+        s.line.writeTo(out);
+        s.line.reset();
+    }
+
+    private void flushSuppressed() throws IOException {
+        if (suppressed>0) {
+            out.write(String.format("[%d lines of output suppressed]%n",suppressed).getBytes());
+            suppressed = 0;
+        }
+    }
+
+    private static boolean hasExited(Process p) {
+        try {
+            p.exitValue();
+            return true;
+        } catch (IllegalThreadStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Longest time to wait between polls, in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 50;
+
+    /**
+     * How long {@link #close()} waits for the sources to finish, in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 10*1000;
+
+    /**
+     * Lines longer than this are broken up.
+     */
+    private static final int MAX_LINE = 8192;
+
+    private static final int BUFFER_SIZE = 64*1024;
+}
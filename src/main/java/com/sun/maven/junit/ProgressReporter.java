@@ -13,15 +13,26 @@ import java.io.PrintStream;
  */
 public class ProgressReporter implements TestListener {
     private final PrintStream report;
+    /**
+     * If false, only failures are reported.
+     */
+    private final boolean dots;
     private int width;
 
     public ProgressReporter(PrintStream report) {
+        this(report,true);
+    }
+
+    public ProgressReporter(PrintStream report, boolean dots) {
         this.report = report;
+        this.dots = dots;
     }
 
     public void addError(Test test, Throwable t) {
-        report.println("FAILURE: "+test.toString());
-        t.printStackTrace(report);
+        synchronized (report) {// don't let concurrent failures interleave
+            report.println("FAILURE: "+test.toString());
+            t.printStackTrace(report);
+        }
     }
 
     public void addFailure(Test test, AssertionFailedError t) {
@@ -32,7 +43,8 @@ public class ProgressReporter implements TestListener {
     }
 
     public void startTest(Test test) {
-        letter('.');
+        if (dots)
+            letter('.');
     }
 
     private synchronized void letter(char ch) {
@@ -0,0 +1,141 @@
+package com.sun.maven.junit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes reports on a background thread, so that the disk latency doesn't add to the test execution time.
+ *
+ * <p>
+ * Jobs are executed one at a time, in the order they are submitted. The queue is bounded, and
+ * {@link #submit(Job)} blocks when it's full, so that a slow disk can't make the test results
+ * pile up in memory.
+ */
+final class ReportQueue {
+    interface Job {
+        void run() throws IOException;
+    }
+
+    private final BlockingQueue<Job> queue;
+    private Thread thread;
+    /**
+     * The first failure in the background, to be reported from {@link #flush()}.
+     */
+    private IOException failure;
+
+    ReportQueue(int capacity) {
+        queue = new ArrayBlockingQueue<Job>(capacity);
+    }
+
+    /**
+     * Queues up a job, waiting for a space if the queue is full.
+     */
+    public void submit(Job job) {
+        synchronized (this) {
+            if (thread==null) {
+                thread = new Thread("report writer") {
+                    @Override
+                    public void run() {
+                        List<Job> batch = new ArrayList<Job>();
+                        try {
+                            while (true) {
+                                batch.add(queue.take());
+                                queue.drainTo(batch);
+                                for (Job j : batch)
+                                    execute(j);
+                                batch.clear();
+                            }
+                        } catch (InterruptedException e) {
+                            // shut down
+                        }
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(job);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // the report still has to be written
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Runs a job. Whatever it throws is recorded, so that the thread stays alive and {@link #flush()}
+     * doesn't wait forever. This includes {@link Error}s, such as a {@link LinkageError} from a formatter class.
+     */
+    private void execute(Job j) {
+        try {
+            j.run();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (failure==null)  failure = e;
+            }
+        } catch (Throwable e) {
+            synchronized (this) {
+                if (failure==null)  failure = (IOException)new IOException(e.toString()).initCause(e);
+            }
+        }
+    }
+
+    /**
+     * Waits until all the jobs submitted so far are executed.
+     *
+     * @throws IOException
+     *      if any of the jobs failed since the last flush.
+     */
+    public void flush() throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        submit(new Job() {
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        synchronized (this) {
+            IOException e = failure;
+            failure = null;
+            if (e!=null)    throw e;
+        }
+    }
+
+    /**
+     * Executes all the pending jobs and stops the background thread.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                if (thread!=null) {
+                    thread.interrupt();
+                    thread = null;
+                }
+            }
+        }
+    }
+}
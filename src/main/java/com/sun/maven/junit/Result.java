@@ -19,6 +19,23 @@ public class Result implements Serializable {
     public final int totalRun;
     public final List<Failure> failures = new ArrayList<Failure>();
     public final List<Failure> errors = new ArrayList<Failure>();
+    /**
+     * Execution time of individual tests.
+     */
+    public final List<Timing> timings = new ArrayList<Timing>();
+    /**
+     * Wall clock time it took to run the test case, in milliseconds.
+     */
+    public long duration;
+    /**
+     * Names of the XML report files written for this test case, relative to the report directory.
+     */
+    public final List<String> reportFiles = new ArrayList<String>();
+    /**
+     * Phases traced while running the test case, to be collected by {@link Tracer#addAll(List)}.
+     * Null if tracing is off.
+     */
+    List<Tracer.Span> spans;
 
     /**
      * Represents an error or a failure.
@@ -57,6 +74,25 @@ public class Result implements Serializable {
         private static final long serialVersionUID = 1L;
     }
 
+    /**
+     * Records how long a single test took.
+     */
+    public static class Timing implements Serializable {
+        public final String className;
+        public final String testName;
+        public final long time;
+        public final boolean success;
+
+        public Timing(String className, String testName, long time, boolean success) {
+            this.className = className;
+            this.testName = testName;
+            this.time = time;
+            this.success = success;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
     public Result(int totalRun) {
         this.totalRun = totalRun;
     }
@@ -67,6 +103,16 @@ public class Result implements Serializable {
         r.failures.addAll(that.failures);
         r.errors.addAll(this.errors);
         r.errors.addAll(that.errors);
+        r.timings.addAll(this.timings);
+        r.timings.addAll(that.timings);
+        r.reportFiles.addAll(this.reportFiles);
+        r.reportFiles.addAll(that.reportFiles);
+        r.duration = this.duration + that.duration;
+        if (this.spans!=null || that.spans!=null) {
+            r.spans = new ArrayList<Tracer.Span>();
+            if (this.spans!=null)   r.spans.addAll(this.spans);
+            if (that.spans!=null)   r.spans.addAll(that.spans);
+        }
         return r;
     }
 
@@ -84,6 +130,16 @@ public class Result implements Serializable {
         return r;
     }
 
+    /**
+     * Like {@link #from(TestResult)}, but keeps the exceptions compact for the transport.
+     */
+    static Result from(TestResult tr, FailureCompactor compactor) {
+        Result r = new Result(tr.runCount());
+        copyTo(tr.errors(), r.errors, compactor);
+        copyTo(tr.failures(), r.failures, compactor);
+        return r;
+    }
+
     public static Result fromFailure(Failure f) {
         Result r = new Result(1);
         r.failures.add(f);
@@ -120,6 +176,13 @@ public class Result implements Serializable {
             dest.add(new Failure(e.nextElement()));
     }
 
+    private static void copyTo(Enumeration<TestFailure> e, List<Failure> dest, FailureCompactor compactor) {
+        while (e.hasMoreElements()) {
+            TestFailure f = e.nextElement();
+            dest.add(new Failure(f.failedTest().toString(), compactor.compact(f.thrownException())));
+        }
+    }
+
     public static final Result ZERO = new Result(0);
 
     private static final long serialVersionUID = 1L;
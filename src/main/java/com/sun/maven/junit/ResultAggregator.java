@@ -0,0 +1,223 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Failure;
+import junit.framework.Test;
+import junit.framework.TestResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates {@link Result}s as they arrive from concurrent test executions.
+ *
+ * <p>
+ * Unlike {@link Result#add(Result)}, this doesn't copy anything. Only the counters and the first few
+ * failures are kept in memory, and the rest of the failures are written to a file in their printed form,
+ * so that a massive breakage doesn't keep all the exceptions on the heap until the end.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+final class ResultAggregator {
+    private int totalRun;
+    private int failureCount;
+    private int errorCount;
+
+    /**
+     * The first failures and errors, up to {@link #maxInMemory}.
+     */
+    private final List<Failure> failures = new ArrayList<Failure>();
+    private final List<Failure> errors = new ArrayList<Failure>();
+    private final int maxInMemory;
+
+    /**
+     * Failures that didn't fit in memory go here. Created lazily.
+     */
+    private final File dir;
+    private File spillFile;
+    private DataOutputStream spill;
+
+    /**
+     * @param dir
+     *      Directory to create a temporary file in, in case failures don't fit in memory.
+     *      Not the report directory, where report publishers would pick it up.
+     * @param maxInMemory
+     *      Number of failures and errors to keep in memory.
+     */
+    public ResultAggregator(File dir, int maxInMemory) {
+        this.dir = dir;
+        this.maxInMemory = maxInMemory;
+    }
+
+    public synchronized void add(Result r) throws IOException {
+        totalRun += r.totalRun;
+        for (Failure f : r.failures)
+            add(f,false);
+        for (Failure f : r.errors)
+            add(f,true);
+    }
+
+    private void add(Failure f, boolean error) throws IOException {
+        List<Failure> list = error ? errors : failures;
+        if (error)  errorCount++;
+        else        failureCount++;
+
+        if (failures.size()+errors.size()<maxInMemory) {
+            list.add(f);
+            return;
+        }
+
+        if (spill==null) {
+            dir.mkdirs();
+            spillFile = File.createTempFile("junit-failures",".bin",dir);
+            spillFile.deleteOnExit();
+            spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+        }
+        StringWriter trace = new StringWriter();
+        PrintWriter w = new PrintWriter(trace);
+        f.cause.printStackTrace(w);
+        w.close();
+
+        spill.writeBoolean(error);
+        writeString(f.name);
+        writeString(trace.toString());
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        spill.writeInt(b.length);
+        spill.write(b);
+    }
+
+    public synchronized int getTotalRun() {
+        return totalRun;
+    }
+
+    public synchronized int getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized boolean isSuccess() {
+        return failureCount==0 && errorCount==0;
+    }
+
+    /**
+     * Restores the {@link TestResult}, just like {@link Result#toTestResult()} does.
+     */
+    public synchronized TestResult toTestResult() throws IOException {
+        TestResult r = new TestResult();
+
+        r.startTest(new Test() {// fake to set the count
+            public int countTestCases() {
+                return totalRun;
+            }
+
+            public void run(TestResult result) {
+            }
+        });
+        for (Failure f : failures)
+            r.addError(f,f.cause);
+        restoreSpilled(r,false);
+        for (Failure f : errors)
+            r.addError(f,f.cause);
+        restoreSpilled(r,true);
+        return r;
+    }
+
+    private void restoreSpilled(TestResult r, boolean error) throws IOException {
+        if (spill==null)    return;
+        spill.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+        try {
+            while (true) {
+                boolean e;
+                try {
+                    e = in.readBoolean();
+                } catch (EOFException x) {
+                    return;
+                }
+                String name = readString(in);
+                String trace = readString(in);
+                if (e==error) {
+                    Failure f = new Failure(name, new PrintedThrowable(trace));
+                    r.addError(f,f.cause);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b,"UTF-8");
+    }
+
+    /**
+     * Discards the temporary file.
+     */
+    public synchronized void close() {
+        if (spill!=null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // we are just throwing it away
+            } finally {
+                spillFile.delete();
+                spill = null;
+            }
+        }
+    }
+
+    /**
+     * Throwable restored from its printed form.
+     */
+    private static final class PrintedThrowable extends Throwable {
+        private final String trace;
+
+        PrintedThrowable(String trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public String toString() {
+            int idx = trace.indexOf('\n');
+            return (idx<0 ? trace : trace.substring(0,idx)).trim();
+        }
+
+        @Override
+        public String getMessage() {
+            return toString();
+        }
+
+        @Override
+        public void printStackTrace(PrintStream s) {
+            s.print(trace);
+        }
+
+        @Override
+        public void printStackTrace(PrintWriter s) {
+            s.print(trace);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,182 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Local cache of test results, to avoid running a test again when nothing that could affect it has changed.
+ *
+ * <p>
+ * Each entry is a directory named after the hash of the test name and the environment (the contents of
+ * the classpath, system properties, JVM options, etc), which contains the serialized {@link Result} and
+ * the XML reports that the test produced. The timestamp of the entry directory records when it was last used,
+ * and the least recently used entries are discarded when the cache grows too big.
+ *
+ * <p>
+ * Only passing results are cached. A failing test is always run again.
+ */
+final class ResultCache {
+    private final File dir;
+    private final long maxSize;
+    /**
+     * Hash of everything other than the test name that goes into the key.
+     */
+    private final String environment;
+
+    /**
+     * @param maxSize
+     *      Bytes the cache is allowed to use, checked by {@link #evict()}.
+     * @param environment
+     *      Identifies the test environment.
+     */
+    public ResultCache(File dir, long maxSize, String environment) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.environment = environment;
+    }
+
+    private File getEntry(String testName) {
+        return new File(dir, new Digester().update(environment).update(testName).toString());
+    }
+
+    /**
+     * Looks up the cached result of the given test.
+     *
+     * @param testName
+     *      Test case name as given to {@link TestCaseRunner#runTestCase(String)}.
+     * @param reportDir
+     *      If found, the cached reports are copied into this directory.
+     * @return
+     *      null if not found.
+     */
+    public Result lookup(String testName, File reportDir) {
+        File entry = getEntry(testName);
+        File data = new File(entry,RESULT);
+        if (!data.exists())     return null;
+
+        try {
+            Result r;
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(data)));
+            try {
+                r = (Result)in.readObject();
+            } finally {
+                in.close();
+            }
+            for (String f : r.reportFiles)
+                FileUtils.copyFile(new File(entry,f), new File(reportDir,f));
+            entry.setLastModified(System.currentTimeMillis());
+            return r;
+        } catch (IOException e) {
+            // corrupted entry
+            deleteQuietly(entry);
+            return null;
+        } catch (ClassNotFoundException e) {
+            // incompatible entry
+            deleteQuietly(entry);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the result of a test that was just executed, if it's worth caching.
+     *
+     * @param reportDir
+     *      Directory that has the reports listed in {@link Result#reportFiles}.
+     */
+    public void store(String testName, Result r, File reportDir) throws IOException {
+        if (!r.isSuccess() || r.reportFiles.isEmpty())
+            return;
+
+        File entry = getEntry(testName);
+        File tmp = new File(dir, entry.getName()+".tmp");
+        deleteQuietly(tmp);
+        tmp.mkdirs();
+
+        for (String f : r.reportFiles)
+            FileUtils.copyFile(new File(reportDir,f), new File(tmp,f));
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(tmp,RESULT))));
+        try {
+            out.writeObject(r);
+        } finally {
+            out.close();
+        }
+
+        deleteQuietly(entry);
+        if (!tmp.renameTo(entry))
+            deleteQuietly(tmp); // somebody else must have stored the same result
+    }
+
+    /**
+     * Discards the least recently used entries until the cache fits in its size limit.
+     */
+    public void evict() {
+        File[] entries = dir.listFiles();
+        if (entries==null)  return;
+
+        long total = 0;
+        for (File e : entries)
+            total += FileUtils.sizeOfDirectory(e);
+        if (total<=maxSize)     return;
+
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File o1, File o2) {
+                long l = o1.lastModified(), r = o2.lastModified();
+                return l<r ? -1 : l>r ? 1 : 0;
+            }
+        });
+        for (File e : entries) {
+            if (total<=maxSize)     break;
+            total -= FileUtils.sizeOfDirectory(e);
+            deleteQuietly(e);
+        }
+    }
+
+    private static void deleteQuietly(File f) {
+        try {
+            FileUtils.forceDelete(f);
+        } catch (IOException e) {
+            // oh well
+        }
+    }
+
+    /**
+     * Computes a hash of the contents of the classpath, for use as a part of the environment.
+     * Only the file names are used for the jar files, so that the same files at different locations
+     * (say on different machines) result in the same hash.
+     */
+    public static void digestClasspath(Digester d, Iterable<String> classpath) throws IOException {
+        for (String e : classpath) {
+            File f = new File(e);
+            if (f.isDirectory()) {
+                digestDirectory(d,f,"");
+            } else
+            if (f.exists()) {
+                d.update(f.getName()).update(f);
+            }
+        }
+    }
+
+    private static void digestDirectory(Digester d, File dir, String path) throws IOException {
+        File[] children = dir.listFiles();
+        if (children==null)     return;
+        Arrays.sort(children);  // so that the hash doesn't depend on the order the file system returns files in
+        for (File f : children) {
+            if (f.isDirectory())
+                digestDirectory(d,f,path+f.getName()+'/');
+            else
+                d.update(path+f.getName()).update(f);
+        }
+    }
+
+    private static final String RESULT = "result.ser";
+}
@@ -0,0 +1,223 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Timing;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Where the time went in a run: the slowest test classes and tests, how busy each fork was,
+ * and how the total time compares with the best possible.
+ *
+ * <p>
+ * Only the slowest tests are kept, so that this doesn't grow with the number of tests.
+ */
+final class RunSummary {
+    /**
+     * How busy a fork was.
+     */
+    private static final class Worker {
+        /**
+         * Time spent running tests, in milliseconds.
+         */
+        long busy;
+        /**
+         * Time from the launch to the shut down, in milliseconds. -1 if it's still running.
+         */
+        long wall = -1;
+    }
+
+    private final int size;
+    private final int concurrency;
+
+    /**
+     * Class name to its execution time in milliseconds. Split classes are added up.
+     */
+    private final Map<String,Long> classes = new HashMap<String,Long>();
+    /**
+     * The slowest tests, fastest at the head.
+     */
+    private final PriorityQueue<Timing> tests = new PriorityQueue<Timing>(16, new Comparator<Timing>() {
+        public int compare(Timing a, Timing b) {
+            return Long.signum(a.time-b.time);
+        }
+    });
+    private final Map<String,Worker> workers = new TreeMap<String,Worker>();
+
+    /**
+     * @param size
+     *      Number of the slowest classes and tests to show.
+     * @param concurrency
+     *      Number of tests that run at the same time, to compute the best possible total time.
+     */
+    RunSummary(int size, int concurrency) {
+        this.size = size;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Adds the result of a test class.
+     *
+     * @param className
+     *      The test class the result is for, or null if the result covers several classes,
+     *      in which case the time of each class is computed from its tests.
+     */
+    public synchronized void add(String className, Result r) {
+        if (className!=null)
+            addClass(className, r.duration);
+        for (Timing t : r.timings) {
+            if (className==null)
+                addClass(t.className, t.time);
+            tests.add(t);
+            if (tests.size()>size)
+                tests.poll();
+        }
+    }
+
+    private void addClass(String className, long time) {
+        Long v = classes.get(className);
+        classes.put(className, v==null ? time : v+time);
+    }
+
+    /**
+     * Records that a fork spent the given time running tests.
+     */
+    public synchronized void addBusyTime(String worker, long time) {
+        getWorker(worker).busy += time;
+    }
+
+    /**
+     * Records that a fork is shut down, which was launched at the given time.
+     */
+    public synchronized void workerEnded(String worker, long launchTime) {
+        getWorker(worker).wall = System.currentTimeMillis()-launchTime;
+    }
+
+    private Worker getWorker(String name) {
+        Worker w = workers.get(name);
+        if (w==null)
+            workers.put(name, w=new Worker());
+        return w;
+    }
+
+    /**
+     * Shortest possible total time with the given concurrency, which is when the work is perfectly
+     * spread over the workers, but can't be shorter than the longest test class.
+     */
+    private long getBestTime() {
+        long sum = 0, max = 0;
+        for (long t : classes.values()) {
+            sum += t;
+            max = Math.max(max,t);
+        }
+        return Math.max(max, sum/Math.max(1,concurrency));
+    }
+
+    private List<Map.Entry<String,Long>> getSlowestClasses() {
+        List<Map.Entry<String,Long>> r = new ArrayList<Map.Entry<String,Long>>(classes.entrySet());
+        Collections.sort(r, new Comparator<Map.Entry<String,Long>>() {
+            public int compare(Map.Entry<String,Long> a, Map.Entry<String,Long> b) {
+                return Long.signum(b.getValue()-a.getValue());
+            }
+        });
+        return r.subList(0, Math.min(size, r.size()));
+    }
+
+    private List<Timing> getSlowestTests() {
+        List<Timing> r = new ArrayList<Timing>(tests);
+        Collections.sort(r, Collections.reverseOrder(tests.comparator()));
+        return r;
+    }
+
+    /**
+     * Prints the summary.
+     *
+     * @param totalTime
+     *      How long the run actually took, in milliseconds.
+     */
+    public synchronized void print(Log log, long totalTime) {
+        log.info("Slowest test classes:");
+        for (Map.Entry<String,Long> e : getSlowestClasses())
+            log.info(String.format("  %9s  %s", formatTime(e.getValue()), e.getKey()));
+
+        log.info("Slowest tests:");
+        for (Timing t : getSlowestTests())
+            log.info(String.format("  %9s  %s.%s", formatTime(t.time), t.className, t.testName));
+
+        if (!workers.isEmpty()) {
+            log.info("Forks:");
+            for (Map.Entry<String,Worker> e : workers.entrySet()) {
+                Worker w = e.getValue();
+                long wall = w.wall>=0 ? w.wall : totalTime;
+                log.info(String.format("  %-10s wall %9s  busy %9s  idle %9s",
+                        e.getKey(), formatTime(wall), formatTime(w.busy), formatTime(Math.max(0,wall-w.busy))));
+            }
+        }
+
+        long best = getBestTime();
+        log.info(String.format("Total time %s, best possible with concurrency %d is %s (%d%% efficient)",
+                formatTime(totalTime), concurrency, formatTime(best), totalTime>0 ? best*100/totalTime : 100));
+    }
+
+    /**
+     * Writes the summary in JSON.
+     */
+    public synchronized void write(File file, long totalTime) throws IOException {
+        PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),"UTF-8"));
+        try {
+            w.println("{");
+            w.printf("  \"totalTime\": %d,%n", totalTime);
+            w.printf("  \"bestTime\": %d,%n", getBestTime());
+            w.printf("  \"concurrency\": %d,%n", concurrency);
+
+            w.println("  \"slowestClasses\": [");
+            String sep = "";
+            for (Map.Entry<String,Long> e : getSlowestClasses()) {
+                w.printf("%s    {\"className\": \"%s\", \"time\": %d}", sep, Tracer.escape(e.getKey()), e.getValue());
+                sep = ",\n";
+            }
+            w.println("\n  ],");
+
+            w.println("  \"slowestTests\": [");
+            sep = "";
+            for (Timing t : getSlowestTests()) {
+                w.printf("%s    {\"className\": \"%s\", \"testName\": \"%s\", \"time\": %d}",
+                        sep, Tracer.escape(t.className), Tracer.escape(t.testName), t.time);
+                sep = ",\n";
+            }
+            w.println("\n  ],");
+
+            w.println("  \"forks\": [");
+            sep = "";
+            for (Map.Entry<String,Worker> e : workers.entrySet()) {
+                Worker x = e.getValue();
+                long wall = x.wall>=0 ? x.wall : totalTime;
+                w.printf("%s    {\"name\": \"%s\", \"wallTime\": %d, \"busyTime\": %d, \"idleTime\": %d}",
+                        sep, Tracer.escape(e.getKey()), wall, x.busy, Math.max(0,wall-x.busy));
+                sep = ",\n";
+            }
+            w.println("\n  ]");
+            w.println("}");
+        } finally {
+            w.close();
+        }
+        if (w.checkError())
+            throw new IOException("Failed to write "+file);
+    }
+
+    private static String formatTime(long ms) {
+        return String.format("%.3fs", ms/1000.0);
+    }
+}
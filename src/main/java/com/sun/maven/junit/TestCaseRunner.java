@@ -2,6 +2,7 @@ package com.sun.maven.junit;
 
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Remoting interface to run tests.
@@ -17,6 +18,17 @@ public interface TestCaseRunner {
      */
     void setUp(List<URL> classpath, boolean quiet);
 
+    /**
+     * Loads the given classes from the test classpath ahead of time, so that the tests don't have to pay for it.
+     * Classes that can't be loaded are ignored.
+     */
+    void preload(List<String> classNames);
+
+    /**
+     * Names of the classes loaded from the test classpath so far.
+     */
+    List<String> getLoadedClasses();
+
     /**
      * Runs a single test case and returns the result.
      *
@@ -24,7 +36,33 @@ public interface TestCaseRunner {
      *      File name of the test case class, relative to the class directory root.
      */
     Result runTestCase(String fileName);
+
+    /**
+     * Runs test cases one by one and returns their results.
+     * This is equivalent to calling {@link #runTestCase(String)} repeatedly, but only takes one round trip.
+     *
+     * @param fileNames
+     *      File names of the test case classes, relative to the class directory root.
+     * @return
+     *      Results in the same order as the file names.
+     */
+    List<Result> runTestCases(List<String> fileNames);
     
+    /**
+     * Lists up the test methods in the given test classes, which can be then run individually
+     * by passing "fileName#methodName" to {@link #runTestCase(String)}.
+     *
+     * @return
+     *      Map from the file name to the method names. The list is empty for a test class that can't be
+     *      split, such as the one that defines its own suite() method.
+     */
+    Map<String,List<String>> listTestMethods(List<String> fileNames);
+
+    /**
+     * Bytes of the heap that remained in use after the last garbage collection.
+     */
+    long getHeapUsage();
+
     /**
      * The clean up that pairs with {@link #setUp(List, boolean)}
      */
@@ -0,0 +1,35 @@
+package com.sun.maven.junit;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link URLClassLoader} that loads tests, and keeps track of the classes it loaded.
+ */
+final class TestClassLoader extends URLClassLoader {
+    private final List<String> loaded = new ArrayList<String>();
+
+    public TestClassLoader(URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Class<?> c = super.findClass(name);
+        synchronized (loaded) {
+            loaded.add(name);
+        }
+        return c;
+    }
+
+    /**
+     * Names of the classes that this class loader defined so far.
+     */
+    public List<String> getLoadedClasses() {
+        synchronized (loaded) {
+            return new ArrayList<String>(loaded);
+        }
+    }
+}
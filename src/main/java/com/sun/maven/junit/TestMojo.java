@@ -23,9 +23,12 @@ import hudson.remoting.SocketInputStream;
 import hudson.remoting.SocketOutputStream;
 import junit.framework.Test;
 import junit.framework.TestCase;
+import junit.framework.TestListener;
 import junit.framework.TestResult;
 import junit.framework.TestSuite;
 import junit.textui.ResultPrinter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -39,7 +42,6 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -49,20 +51,32 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeSet;
 import java.util.Properties;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Runs tests
@@ -194,6 +208,311 @@ public class TestMojo extends AbstractMojo
      */
     private List<String> excludes;
 
+    /**
+     * Order in which the test classes are executed. "balanced" runs the test classes that took the longest
+     * in the previous run first, so that the work is evenly spread among concurrent executions and
+     * a long test doesn't get started at the very end. "filesystem" runs them in the order they are found
+     * on the disk. "failedfirst" runs the test classes that failed in the previous run first, then those
+     * whose class files have changed since the previous run, and then the rest, each group in the "balanced"
+     * order, so that a broken change gets noticed early.
+     *
+     * @parameter expression="${maven.junit.runOrder}" default-value="balanced"
+     */
+    protected String runOrder = "balanced";
+
+    /**
+     * File that records the execution time and the outcome of tests across builds.
+     * This is used to schedule the test execution.
+     *
+     * @parameter expression="${maven.junit.timingDatabase}" default-value="${project.build.directory}/junit-timings.db"
+     */
+    private File timingDatabase;
+
+    /**
+     * Execution time of a test recorded in {@link #timingDatabase} is the average of this many recent runs.
+     *
+     * @parameter expression="${maven.junit.timingHistory}" default-value="5"
+     */
+    private int timingHistory = 5;
+
+    /**
+     * Loaded from {@link #timingDatabase} and updated as tests complete.
+     */
+    private TimingDatabase timings;
+
+    /**
+     * Test classes that are expected to finish within this many milliseconds are sent to a fork
+     * together in a single remote call, to cut down the communication overhead. 0 disables batching.
+     * Batching is also disabled by {@link #skipAfterFailureCount}.
+     *
+     * @parameter expression="${maven.junit.batchTime}" default-value="1000"
+     */
+    protected long batchTime = 1000;
+
+    /**
+     * Forked JVMs are launched while the test classes are being scanned. When this option is set,
+     * each of them also loads the classes that the tests used in the previous run before it receives
+     * the first test, so that the class loading overhead is paid upfront.
+     *
+     * @parameter expression="${maven.junit.warmUp}"
+     */
+    protected boolean warmUp;
+
+    /**
+     * Speed up the start up of forked JVMs by class data sharing. The first fork dumps the classes it loaded
+     * into an archive under the build directory, and the forks launched after that (including those in
+     * the subsequent builds) start from it. The archive is rebuilt when the JVM or the classpath changes.
+     * Requires Java 13 or later, and ignored otherwise.
+     *
+     * @parameter expression="${maven.junit.classDataSharing}"
+     */
+    protected boolean classDataSharing;
+
+    private ClassDataArchive classDataArchive;
+
+    /**
+     * Copies the console output of forks. Created on demand.
+     */
+    private OutputMultiplexer outputMultiplexer;
+
+    /**
+     * Replace a forked JVM with a new one after it has run this many test classes, so that the garbage
+     * that tests leave behind (static caches, threads, loaded classes) doesn't slow down the later tests.
+     * 0 means no limit.
+     *
+     * @parameter expression="${maven.junit.forkMaxClasses}"
+     */
+    protected int forkMaxClasses;
+
+    /**
+     * Replace a forked JVM with a new one once its heap usage after garbage collection exceeds this many megabytes.
+     * 0 means no limit.
+     *
+     * @parameter expression="${maven.junit.forkMaxHeap}"
+     */
+    protected int forkMaxHeap;
+
+    /**
+     * Replace a forked JVM with a new one after it has been running for this many seconds.
+     * 0 means no limit.
+     *
+     * @parameter expression="${maven.junit.forkMaxTime}"
+     */
+    protected int forkMaxTime;
+
+    /**
+     * Only run the test classes that are affected by the changes since the last successful run.
+     * The plugin keeps a dependency index of the classes in the project, computed from their byte code,
+     * and selects the test classes that depend (directly or transitively) on a class that has changed.
+     * A change in the jar files or the resources on the classpath causes everything to run.
+     * The index is only updated when all the selected tests ran and passed. It then takes in the changes
+     * that the tests which ran cover, so that the next run only runs what's affected since this one.
+     *
+     * @parameter expression="${maven.junit.incremental}"
+     */
+    protected boolean incremental;
+
+    /**
+     * Run all the tests even if {@link #incremental} is set.
+     *
+     * @parameter expression="${maven.junit.fullRun}"
+     */
+    protected boolean fullRun;
+
+    /**
+     * Directory to cache test results in. When set, a test class is not run if it already passed with
+     * exactly the same classpath contents, system properties and JVM options. Its result and reports are
+     * restored from the cache instead. Only effective when forking.
+     *
+     * @parameter expression="${maven.junit.resultCache}"
+     */
+    protected File resultCacheDirectory;
+
+    /**
+     * Maximum size of {@link #resultCacheDirectory} in megabytes. Least recently used results are discarded
+     * to stay within this limit.
+     *
+     * @parameter expression="${maven.junit.resultCacheSize}" default-value="256"
+     */
+    protected int resultCacheSize = 256;
+
+    /**
+     * Test classes that had at least this many test methods in the previous run are split into several parts,
+     * which run in different forks concurrently, so that one huge test class doesn't keep a single fork busy
+     * while others are idle. Classes that took less than twice {@link #batchTime} aren't split.
+     * 0 disables splitting. Only effective when forking.
+     *
+     * @parameter expression="${maven.junit.splitThreshold}"
+     */
+    protected int splitThreshold;
+
+    /**
+     * Console output of a test is captured in memory up to this many kilobytes, and beyond that
+     * it goes to a temporary file until it's written to the report.
+     *
+     * @parameter expression="${maven.junit.outputBufferSize}" default-value="1024"
+     */
+    protected int outputBufferSize = 1024;
+
+    /**
+     * Console output of a test beyond this many kilobytes is truncated in the report,
+     * keeping the beginning and the end. 0 means no limit.
+     *
+     * @parameter expression="${maven.junit.maxOutputSize}"
+     */
+    protected int maxOutputSize;
+
+    /**
+     * How the XML reports are organized. "perClass" writes a report file for each test class.
+     * "fork" writes one report file per forked JVM (or just one when not forking), which saves a lot of
+     * small files for a big test suite. "single" merges all the results into one report file.
+     * The result cache needs "perClass".
+     *
+     * @parameter expression="${maven.junit.reportFormat}" default-value="perClass"
+     */
+    protected String reportFormat = "perClass";
+
+    /**
+     * Compress the XML reports with gzip.
+     *
+     * @parameter expression="${maven.junit.compressReports}"
+     */
+    protected boolean compressReports;
+
+    /**
+     * Trim the stack frames of JUnit, reflection and this plugin from the failures that forked JVMs report,
+     * to keep them short. The XML reports are trimmed in the same way regardless of this option.
+     *
+     * @parameter expression="${maven.junit.trimStackTrace}" default-value="true"
+     */
+    protected boolean trimStackTrace = true;
+
+    /**
+     * Additional stack frames to trim, in the form of "com.acme.framework." that matches the beginning of
+     * the class name followed by the method name.
+     *
+     * @parameter
+     */
+    protected List<String> stackTraceFilters;
+
+    /**
+     * How the forked JVMs talk to this JVM. "socket" has them connect back to a TCP port on the loopback interface.
+     * "pipe" runs the communication over the stdin/stdout of the process instead, and its console output comes
+     * through stderr. This avoids the TCP handshake, and works where loopback connections aren't allowed,
+     * but tests must not read from {@link System#in} nor write to the file descriptor 1 directly.
+     *
+     * @parameter expression="${maven.junit.forkTransport}" default-value="socket"
+     */
+    protected String forkTransport = "socket";
+
+    /**
+     * Records how long each phase of the test execution takes (launching and setting up forks, loading
+     * test classes, running tests, writing reports) into this file, in the Chrome trace event format that
+     * can be viewed in chrome://tracing or Perfetto. A summary is also printed at the end.
+     *
+     * @parameter expression="${maven.junit.traceFile}"
+     */
+    protected File traceFile;
+
+    /**
+     * How the progress is shown. "dots" prints a dot for each test. "live" shows the progress of the whole run
+     * (the number of tests run, throughput, estimated time to completion, and what each JVM is running)
+     * in a status line that's updated periodically. "none" shows nothing until the end.
+     *
+     * @parameter expression="${maven.junit.progress}" default-value="dots"
+     */
+    protected String progress = "dots";
+
+    /**
+     * Number of the slowest test classes and tests to list in the summary printed at the end of the run,
+     * which also shows how busy each fork was. 0 to turn off the summary.
+     *
+     * @parameter expression="${maven.junit.summarySize}" default-value="10"
+     */
+    protected int summarySize = 10;
+
+    /**
+     * The summary is also written to this file in JSON.
+     *
+     * @parameter expression="${maven.junit.summaryFile}" default-value="${project.build.directory}/junit-summary.json"
+     */
+    protected File summaryFile;
+
+    /**
+     * Stop running tests once this many tests have failed, and skip the test classes that haven't started.
+     * This saves time on a build that is known to fail anyway. 0 means run everything.
+     *
+     * @parameter expression="${maven.junit.skipAfterFailureCount}"
+     */
+    protected int skipAfterFailureCount;
+
+    /**
+     * When forking, test classes that are still running this many seconds after {@link #skipAfterFailureCount}
+     * is reached are aborted by killing their JVMs, and reported as skipped.
+     *
+     * @parameter expression="${maven.junit.skipAfterFailureGracePeriod}" default-value="10"
+     */
+    protected int skipAfterFailureGracePeriod = 10;
+
+    /**
+     * Dependency index computed in this run, to be saved if all the tests pass.
+     */
+    private DependencyIndex dependencyIndex;
+
+    /**
+     * Set to true if some of the selected test classes or methods are left out of this run, in which case
+     * {@link #dependencyIndex} can't be saved as is, for the changes they haven't been tested against would be forgotten.
+     */
+    private boolean testsNarrowed;
+
+    /**
+     * When {@link #incremental} narrowed down the tests, the index this run was compared with,
+     * and the names of all the test classes and those that ran, to work out what this run has tested.
+     */
+    private DependencyIndex previousDependencyIndex;
+    private Set<String> allTestClasses, selectedTestClasses;
+
+    /**
+     * Set to true when the tests ran and they all passed.
+     */
+    private boolean testsPassed;
+
+    /**
+     * Snapshot of the execution time of the earlier runs, as of the beginning of this run.
+     */
+    private DurationHistory durationHistory;
+
+    /**
+     * Statistics of the time it takes from launching a JVM until its channel is established.
+     */
+    private int forksConnected;
+    private long totalConnectTime, maxConnectTime;
+
+    private Tracer tracer = Tracer.DISABLED;
+
+    /**
+     * Non-null if {@link #progress} is "live" and the tests are running.
+     */
+    private LiveProgress liveProgress;
+
+    /**
+     * Null if {@link #summarySize} is 0.
+     */
+    private RunSummary summary;
+
+    /**
+     * State of the test class files as of the previous run, if {@link #runOrder} is "failedfirst".
+     */
+    private ClassFileState classFileState;
+    /**
+     * Test classes to run in this run, whose state is recorded at the end, unless they are skipped.
+     */
+    private List<String> scannedClasses;
+    /**
+     * Test classes skipped by {@link #skipAfterFailureCount}. Null until the tests complete.
+     */
+    private List<String> skippedClasses;
+
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (skipTests) {
             getLog().info("Tests are skipped.");
@@ -201,11 +520,55 @@ public class TestMojo extends AbstractMojo
         }
 
         normalizeParameters();
+        if (!Arrays.asList("perClass","fork","single").contains(reportFormat))
+            throw new MojoExecutionException("Unknown reportFormat: "+reportFormat);
+        if (!Arrays.asList("socket","pipe").contains(forkTransport))
+            throw new MojoExecutionException("Unknown forkTransport: "+forkTransport);
+        if (!Arrays.asList("dots","live","none").contains(progress))
+            throw new MojoExecutionException("Unknown progress: "+progress);
 
-        if (fork)
-            executeForked();
-        else
-            executeLocal();
+        timings = new TimingDatabase(timingDatabase,timingHistory).load();
+        tracer = new Tracer(traceFile!=null,0);
+        summary = summarySize>0 ? new RunSummary(summarySize,concurrency) : null;
+        try {
+            if (fork)
+                executeForked();
+            else
+                executeLocal();
+        } finally {
+            if (tracer.isEnabled()) {
+                tracer.printSummary(getLog());
+                try {
+                    tracer.writeChromeTrace(traceFile);
+                } catch (IOException e) {
+                    getLog().warn("Failed to write "+traceFile,e);
+                }
+            }
+            try {
+                timings.save();
+            } catch (IOException e) {
+                getLog().warn("Failed to update "+timingDatabase,e);
+            }
+            if (classFileState!=null && skippedClasses!=null) {
+                try {
+                    saveClassFileState();
+                } catch (IOException e) {
+                    getLog().warn("Failed to record the state of the test classes",e);
+                }
+            }
+            if (dependencyIndex!=null && testsPassed) {
+                DependencyIndex idx = dependencyIndex;
+                if (testsNarrowed)  // only take in the changes that the tests which ran cover
+                    idx = previousDependencyIndex==null ? null :
+                        dependencyIndex.mergeTested(previousDependencyIndex, allTestClasses, selectedTestClasses);
+                try {
+                    if (idx!=null)
+                        idx.save(getDependencyIndexFile());
+                } catch (IOException e) {
+                    getLog().warn("Failed to update "+getDependencyIndexFile(),e);
+                }
+            }
+        }
     }
 
     /**
@@ -221,27 +584,117 @@ public class TestMojo extends AbstractMojo
     }
 
     public void executeLocal() throws MojoExecutionException {
-        PrintStream progress = System.out; // before we start messing around with stdout/stderr, this is where we send the progress report.
+        PrintStream out = System.out, err = System.err;
+        PrintStream report = out; // before we start messing around with stdout/stderr, this is where we send the progress report.
+        boolean redirected = false;
         try {
+            if (progress.equals("live")) {
+                // created before the runner, so that the test output and the failures go through it
+                liveProgress = new LiveProgress(report, getDurationHistory(), concurrency);
+                report = new PrintStream(liveProgress.getConsole(),true);
+                if (!quiet) {
+                    System.setOut(report);
+                    System.setErr(report);
+                    redirected = true;
+                }
+            }
+
             LocalTestCaseRunner runner = createTestCaseRunner();
+            if (!reportFormat.equals("perClass"))
+                runner.setReportFormat(compressReports, AGGREGATE_REPORT+".xml", "all");
+            runner.setTracer(tracer);
             runner.setUp(makeClassPath(), quiet);
 
             try {
-                Test all = buildTestSuite(runner, concurrency>1 ? new ParallelTestSuite(concurrency) : new TestSuite());
+                List<String> testClasses = listTestClasses();
+                FailFast failFast = skipAfterFailureCount>0 ? new FailFast(skipAfterFailureCount) : null;
+                Test all = buildTestSuite(runner, testClasses, failFast, concurrency>1 ? new ParallelTestSuite(concurrency) : new TestSuite());
 
                 long startTime = System.currentTimeMillis();
-                TestResult r = runner.runTests(all, progress);
-                printResult(r,System.currentTimeMillis()-startTime);
+                TimingRecorder recorder = new TimingRecorder();
+                List<TestListener> listeners = new ArrayList<TestListener>();
+                listeners.add(recorder);
+                if (failFast!=null)
+                    listeners.add(failFast);
+                if (liveProgress!=null) {
+                    liveProgress.setTestClasses(testClasses);
+                    liveProgress.start();
+                    listeners.add(liveProgress.createListener());
+                }
+                long t = tracer.start();
+                TestResult r;
+                try {
+                    r = runner.runTests(all, report, listeners.toArray(new TestListener[listeners.size()]));
+                    if (liveProgress!=null)
+                        liveProgress.finishAll();
+                } finally {
+                    closeLiveProgress();
+                }
+                tracer.end(t,"test","all");
+                long totalTime = System.currentTimeMillis()-startTime;
+                printResult(r,totalTime);
+                testsPassed = r.wasSuccessful();
+                reportSkipped(failFast!=null ? failFast.getSkipped() : Collections.<String>emptyList());
+
+                Result times = new Result(r.runCount());
+                times.timings.addAll(recorder.getTimings());
+                timings.record(times,0);
+                if (summary!=null) {
+                    summary.add(null,times);
+                    printSummary(totalTime);
+                }
             } finally {
                 runner.tearDown();
             }
         } catch (MalformedURLException e) {
             throw new MojoExecutionException("Failed to execute JUnit tests",e);
+        } catch (InterruptedException e) {
+            throw new MojoExecutionException("Failed to execute JUnit tests",e);
+        } finally {
+            if (redirected) {
+                System.setOut(out);
+                System.setErr(err);
+            }
+        }
+    }
+
+    private void reportSkipped(List<String> classFiles) {
+        skippedClasses = classFiles;
+        if (classFiles.isEmpty())   return;
+        getLog().warn(String.format("Skipped %d test classes after %d failures:", classFiles.size(), skipAfterFailureCount));
+        for (String f : classFiles)
+            getLog().warn("  "+DurationHistory.toClassName(f));
+    }
+
+    private void printSummary(long totalTime) {
+        summary.print(getLog(), totalTime);
+        try {
+            summaryFile.getParentFile().mkdirs();
+            summary.write(summaryFile, totalTime);
+        } catch (IOException e) {
+            getLog().warn("Failed to write "+summaryFile,e);
+        }
+    }
+
+    private void closeLiveProgress() throws InterruptedException {
+        if (liveProgress!=null) {
+            liveProgress.close();
+            liveProgress = null;
         }
     }
 
     protected LocalTestCaseRunner createTestCaseRunner() {
-        return new LocalTestCaseRunner(getReportDirectory());
+        LocalTestCaseRunner r = new LocalTestCaseRunner(getReportDirectory());
+        r.setProgressDots(progress.equals("dots"));
+        r.setOutputLimits(outputBufferSize*1024, maxOutputSize*1024L);
+        r.setReportFormat(compressReports, null, null);
+        if (trimStackTrace) {
+            List<String> filters = new ArrayList<String>(FailureCompactor.DEFAULT_FILTERS);
+            if (stackTraceFilters!=null)
+                filters.addAll(stackTraceFilters);
+            r.setStackTraceFilters(filters);
+        }
+        return r;
     }
 
     /**
@@ -250,121 +703,542 @@ public class TestMojo extends AbstractMojo
     public void executeForked() throws MojoExecutionException, MojoFailureException {
         try {
             final ExecutorService remoteOps = Executors.newCachedThreadPool();
+            // these take a while, so they are done while the forks boot
+            final Future<List<String>> hotClasses = remoteOps.submit(new Callable<List<String>>() {
+                public List<String> call() {
+                    return warmUp ? loadHotClasses() : Collections.<String>emptyList();
+                }
+            });
+            final Future<ResultCache> pendingCache = remoteOps.submit(new Callable<ResultCache>() {
+                public ResultCache call() throws MojoExecutionException {
+                    return createResultCache();
+                }
+            });
+
+            // created before the forks, so that their output goes through it
+            if (progress.equals("live"))
+                liveProgress = new LiveProgress(System.out, getDurationHistory(), concurrency);
+
+            final ExecutorService spawner = Executors.newCachedThreadPool();
+            final List<Future<Void>> retirements = Collections.synchronizedList(new ArrayList<Future<Void>>());
+            final AtomicInteger portIds = new AtomicInteger();
 
             /**
              * Per thread workspace.
              */
             class Port {
-                Channel channel;
+                final int id = portIds.incrementAndGet();
+                ForkedChannel channel;
                 TestCaseRunner runner;
+                /**
+                 * Set to true once the process is killed. Such a port needs to be discarded.
+                 */
+                volatile boolean killed;
+                /**
+                 * Set to true once this port is shut down for recycling.
+                 */
+                volatile boolean retired;
+                final long launchTime = System.currentTimeMillis();
+                int classesRun;
 
-                Port() throws IOException, InterruptedException {
-                    channel = fork(System.out,remoteOps);
-                    runner = createTestCaseRunner().copyTo(channel);
+                Port() throws IOException, InterruptedException, ExecutionException {
+                    channel = fork(id,remoteOps);
+                    long t = tracer.start();
+                    LocalTestCaseRunner r = createTestCaseRunner();
+                    r.setTracer(tracer.forFork(id));
+                    // parts of a split class run in different forks under the same class name
+                    r.setReportId("fork"+id);
+                    if (reportFormat.equals("fork"))
+                        r.setReportFormat(compressReports, DurationHistory.AGGREGATE_PREFIX+"fork-"+id+".xml", "fork-"+id);
+                    if (reportFormat.equals("single"))
+                        r.setReportFormat(false, getReportFragment(id).getName(), null);
+                    runner = r.copyTo(channel);
                     runner.setUp(makeClassPath(), quiet);
+                    List<String> hot = hotClasses.get();
+                    if (!hot.isEmpty())
+                        runner.preload(hot);
+                    tracer.end(t,"init","fork");
+                }
+
+                void kill() {
+                    killed = true;
+                    channel.kill();
+                    if (summary!=null)
+                        summary.workerEnded("fork "+id, launchTime);
+                }
+
+                /**
+                 * Should this JVM be replaced by a fresh one before it runs more tests?
+                 */
+                boolean isWornOut() {
+                    if (forkMaxClasses>0 && classesRun>=forkMaxClasses)
+                        return true;
+                    if (forkMaxTime>0 && System.currentTimeMillis()-launchTime>=forkMaxTime*1000L)
+                        return true;
+                    if (forkMaxHeap>0) {
+                        try {
+                            return runner.getHeapUsage()>=forkMaxHeap*1024L*1024L;
+                        } catch (RuntimeException e) {
+                            return true; // a fork that can't even answer this is better replaced
+                        }
+                    }
+                    return false;
+                }
+
+                /**
+                 * Shuts down this JVM in the background.
+                 */
+                void retire() {
+                    retired = true;
+                    if (summary!=null)
+                        summary.workerEnded("fork "+id, launchTime);
+                    retirements.add(spawner.submit(new Callable<Void>() {
+                        public Void call() throws IOException {
+                            long t = tracer.start();
+                            runner.tearDown();
+                            channel.close();
+                            tracer.end(t,"tearDown","fork");
+                            return null;
+                        }
+                    }));
                 }
             }
 
-            // allocated channels
-            final Set<Port> ports = Collections.synchronizedSet(new HashSet<Port>());
+            // allocated channels, which are launched in the background while we figure out what tests to run
+            final List<Future<Port>> ports = Collections.synchronizedList(new ArrayList<Future<Port>>());
+            final BlockingQueue<Future<Port>> idlePorts = new LinkedBlockingQueue<Future<Port>>();
             final ThreadLocal<Port> port4thread = new ThreadLocal<Port>();
+            /**
+             * Number of tasks that haven't got a fork yet.
+             */
+            final AtomicInteger unassignedTasks = new AtomicInteger();
+
+            /**
+             * Launches a new fork in the background, and makes it available to workers once it's ready.
+             */
+            class Spawner implements Callable<Port> {
+                void spawn() {
+                    Future<Port> f = spawner.submit(this);
+                    ports.add(f);
+                    idlePorts.add(f);
+                }
+
+                public Port call() throws Exception {
+                    return new Port();
+                }
+
+                /**
+                 * Launches a replacement of a fork that's gone, unless no more tasks need one.
+                 */
+                void replace() {
+                    if (unassignedTasks.get()>0)
+                        spawn();
+                }
+            }
+            // when forks get recycled, keep one spare ready so that workers don't have to wait for a new JVM
+            boolean recycle = forkMaxClasses>0 || forkMaxTime>0 || forkMaxHeap>0;
+            for (int i=0; i<concurrency+(recycle?1:0); i++)
+                new Spawner().spawn();
 
-            class Task implements Callable<Result> {
-                final String testClassFile;
-                final Future<Result> future;
+            final BlockingQueue<Future<List<Result>>> completed = new LinkedBlockingQueue<Future<List<Result>>>();
+
+            /**
+             * Runs a batch of test classes in one remote call.
+             */
+            class Task implements Callable<List<Result>> {
+                final List<String> testClassFiles;
+                /**
+                 * Where the results go, if enabled.
+                 */
+                final ResultCache cache;
+                final FutureTask<List<Result>> future = new FutureTask<List<Result>>(this) {
+                    @Override
+                    protected void done() {
+                        completed.add(this);
+                    }
+                };
                 volatile long startTime;
+                volatile Port port;
+                volatile boolean timedOut;
+                /**
+                 * Set once {@link TestMojo#skipAfterFailureCount} is reached. The task is skipped if it hasn't started.
+                 */
+                volatile boolean skipped;
+                /**
+                 * Set once the grace period after {@link TestMojo#skipAfterFailureCount} is over.
+                 * The task is aborted if it's still running.
+                 */
+                volatile boolean aborted;
+
+                Task(List<String> testClassFiles, ResultCache cache, ExecutorService es) {
+                    this.testClassFiles = testClassFiles;
+                    this.cache = cache;
+                    unassignedTasks.incrementAndGet();
+                    es.execute(future);
+                }
+
+                /**
+                 * Timeout of this task in milliseconds. Each test class gets {@link TestMojo#timeout} seconds.
+                 */
+                long getTimeout() {
+                    return timeout*1000L*testClassFiles.size();
+                }
+
+                /**
+                 * Called by the watchdog to see if this task has been running for too long,
+                 * in which case the fork gets killed and replaced by a new one.
+                 */
+                void checkTimeout(long now) {
+                    Port p = port;
+                    if (p==null || timedOut || future.isDone() || now-startTime<=getTimeout())
+                        return;
+                    timedOut = true;
+                    p.kill();
+                    new Spawner().replace();
+                }
 
-                Task(String testClassFile, ExecutorService es) {
-                    this.testClassFile = testClassFile;
-                    this.future = es.submit(this);
+                /**
+                 * Kills the fork if this task is running. Set {@link #aborted} on all the tasks first,
+                 * so that the task that uses the fork next doesn't take this as a failure.
+                 */
+                void killIfRunning() {
+                    Port p = port;
+                    if (p!=null && !future.isDone())
+                        p.kill();
                 }
 
-                public Result call() throws Exception {
-                    Port p = port4thread.get();
-                    if (p==null) {
-                        port4thread.set(p=new Port());
-                        ports.add(p);
+                /**
+                 * Result of a task that didn't run.
+                 */
+                List<Result> skip() {
+                    LiveProgress live = liveProgress;
+                    if (live!=null)
+                        live.skipped(testClassFiles);
+                    return null;
+                }
+
+                @Override
+                public String toString() {
+                    String s = testClassFiles.get(0);
+                    if (testClassFiles.size()>1)
+                        s += " and "+(testClassFiles.size()-1)+" more";
+                    return s;
+                }
+
+                /**
+                 * @return
+                 *      null if skipped or aborted.
+                 */
+                public List<Result> call() throws Exception {
+                    Port p;
+                    try {
+                        p = port4thread.get();
+                        while (p==null) {
+                            if (skipped)    return skip();
+                            // don't wait forever, since forks aren't replaced once the tests are stopped
+                            Future<Port> f = idlePorts.poll(1,TimeUnit.SECONDS);
+                            if (f!=null)
+                                port4thread.set(p=f.get());
+                        }
+                    } finally {
+                        unassignedTasks.decrementAndGet();
                     }
+                    if (skipped)    return skip();
 
                     startTime = System.currentTimeMillis();
+                    port = p;
+                    LiveProgress live = liveProgress;
+                    if (live!=null)
+                        live.started("fork "+p.id, toString(), testClassFiles);
+                    int testsRun = 0;
 
                     String oldName = Thread.currentThread().getName();
                     try {
-                        String testName = testClassFile;
-                        int index = test.indexOf( '#' );
-                        if (index>=0) {
-                            String methodName = test.substring( index + 1, test.length() );
-                            testName += "#"+methodName;
-                        }
+                        List<String> testNames = new ArrayList<String>(testClassFiles.size());
+                        for (String f : testClassFiles)
+                            testNames.add(toTestName(f));
 
-                        Thread.currentThread().setName(oldName+" : executing test "+testName);
-                        return p.runner.runTestCase(testName);
+                        Thread.currentThread().setName(oldName+" : executing test "+this);
+                        long t = tracer.start();
+                        List<Result> results = p.runner.runTestCases(testNames);
+                        tracer.end(t,"batch",testNames.get(0));
+                        for (int i=0; i<results.size(); i++) {
+                            Result r = results.get(i);
+                            if (r.spans!=null) {
+                                tracer.addAll(r.spans);
+                                r.spans = null; // no point in keeping them in the cache
+                            }
+                            testsRun += r.totalRun;
+                            if (summary!=null)
+                                summary.add(DurationHistory.toClassName(testClassFiles.get(i).split("#")[0]), r);
+                            if (testNames.get(i).indexOf('#')>=0)
+                                timings.recordTests(r,p.id);
+                            else
+                                timings.record(r,p.id);
+                            if (cache!=null) {
+                                try {
+                                    cache.store(testNames.get(i),r,getReportDirectory());
+                                } catch (IOException e) {
+                                    getLog().warn("Failed to cache the result of "+testNames.get(i),e);
+                                }
+                            }
+                        }
+                        return results;
+                    } catch (Exception e) {
+                        if (aborted)    return null;
+                        // the call gets aborted when the watchdog kills the fork
+                        if (!timedOut)  throw e;
+                        // we can't tell which class hung, so all of them get the blame
+                        long share = (System.currentTimeMillis()-startTime)/testClassFiles.size();
+                        for (String f : testClassFiles) {
+                            String[] parts = f.split("#");
+                            timings.recordTimeout(DurationHistory.toClassName(parts[0]), parts.length>1 ? -1 : share, p.id);
+                        }
+                        return Collections.singletonList(Result.fromFailure(new Failure("Test "+this+" timed out",
+                                new TimeoutException("Killed after "+getTimeout()/1000+" seconds"))));
                     } finally {
+                        if (live!=null)
+                            live.finished("fork "+p.id, testClassFiles.size(), testsRun);
+                        if (summary!=null)
+                            summary.addBusyTime("fork "+p.id, System.currentTimeMillis()-startTime);
+                        p.classesRun += testClassFiles.size();
+                        if (p.killed) {
+                            port4thread.remove(); // this worker will pick up a new fork for the next task
+                        } else
+                        if (p.isWornOut()) {
+                            port4thread.remove();
+                            p.retire();
+                            new Spawner().replace();
+                        }
                         Thread.currentThread().setName(oldName);
                     }
                 }
             }
 
             final long startTime = System.currentTimeMillis();
+            ExecutorService testRunners = Executors.newFixedThreadPool(concurrency);
+            ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+            ResultCache cache = null;
             try {
-                ExecutorService testRunners = Executors.newFixedThreadPool(concurrency);
+                // schedule executions, except those we already know the results of
+                List<String> testClasses = listTestClasses();
+                List<String> splitCandidates = getSplitCandidates(testClasses);
+                if (!splitCandidates.isEmpty()) {
+                    // borrow a fork to find out what methods these classes have
+                    Map<String,List<String>> methods = null;
+                    List<Future<Port>> borrowed = new ArrayList<Future<Port>>();
+                    try {
+                        while (methods==null && !idlePorts.isEmpty()) {
+                            Future<Port> f = idlePorts.take();
+                            borrowed.add(f);
+                            try {
+                                methods = f.get().runner.listTestMethods(splitCandidates);
+                            } catch (ExecutionException e) {
+                                // try another one. the task that gets this fork will report the problem
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        getLog().warn("Failed to list the test methods of large test classes",e);
+                    } finally {
+                        idlePorts.addAll(borrowed);
+                    }
+                    if (methods!=null)
+                        testClasses = splitLargeClasses(testClasses, methods);
+                    else
+                        getLog().warn("Not splitting large test classes");
+                }
+
+                if (liveProgress!=null)
+                    liveProgress.setTestClasses(testClasses);
 
-                // schedule executions
-                List<Task> jobs = new ArrayList<Task>();
-                for (final String testClassFile : scanTestClasses().getIncludedFiles()) {
-                    jobs.add(new Task(testClassFile,testRunners));
+                try {
+                    cache = pendingCache.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof MojoExecutionException)
+                        throw (MojoExecutionException)e.getCause();
+                    throw new MojoExecutionException("Failed to set up the result cache",e.getCause());
+                }
+                List<Result> cachedResults = new ArrayList<Result>();
+                if (cache!=null) {
+                    List<String> cachedClasses = new ArrayList<String>();
+                    for (Iterator<String> itr = testClasses.iterator(); itr.hasNext(); ) {
+                        String f = itr.next();
+                        Result c = cache.lookup(toTestName(f),getReportDirectory());
+                        if (c!=null) {
+                            cachedResults.add(c);
+                            cachedClasses.add(f);
+                            itr.remove();
+                        }
+                    }
+                    if (liveProgress!=null)
+                        liveProgress.skipped(cachedClasses);
+                    if (!cachedResults.isEmpty())
+                        getLog().info(String.format("Skipping %d test classes that passed before without any change", cachedResults.size()));
                 }
 
-                // tally the results
-                Result r = Result.ZERO;
-                String oldName = Thread.currentThread().getName();
-                for (Task f : jobs) {
-                    try {
-                        Thread.currentThread().setName(oldName+" : waiting for "+f.testClassFile);
-                        while (true) {// time out loop
-                            long timeoutMillis = -1;
-                            if (this.timeout>0) {
-                                if (f.startTime>0)
-                                    timeoutMillis = Math.max(0,System.currentTimeMillis()-timeoutMillis);
-                                else
-                                    timeoutMillis = this.timeout * 1000;
+                if (liveProgress!=null)
+                    liveProgress.start();
+
+                final List<Task> jobs = new ArrayList<Task>();
+                for (List<String> batch : makeBatches(testClasses)) {
+                    jobs.add(new Task(batch,cache,testRunners));
+                }
+
+                if (timeout>0) {
+                    watchdog.scheduleWithFixedDelay(new Runnable() {
+                        public void run() {
+                            long now = System.currentTimeMillis();
+                            for (Task t : jobs)
+                                t.checkTimeout(now);
+                        }
+                    }, 1, 1, TimeUnit.SECONDS);
+                }
+
+                // tally the results in the order they complete
+                ResultAggregator r = new ResultAggregator(new File(project.getBuild().getDirectory()),MAX_FAILURES_IN_MEMORY);
+                try {
+                    String oldName = Thread.currentThread().getName();
+                    Thread.currentThread().setName(oldName+" : waiting for test results");
+                    for (Result x : cachedResults)
+                        r.add(x);
+
+                    Map<Future<List<Result>>,Task> tasks = new IdentityHashMap<Future<List<Result>>,Task>();
+                    for (Task t : jobs)
+                        tasks.put(t.future,t);
+
+                    List<String> skippedClasses = new ArrayList<String>();
+                    boolean stopping = false;
+                    long deadline = -1;   // when the tasks still running after skipAfterFailureCount get aborted
+                    for (int done=0; done<jobs.size(); ) {
+                        Future<List<Result>> f;
+                        if (deadline<0) {
+                            f = completed.take();
+                        } else {
+                            f = completed.poll(Math.max(0,deadline-System.currentTimeMillis()),TimeUnit.MILLISECONDS);
+                            if (f==null) {
+                                for (Task j : jobs)
+                                    j.aborted = true;
+                                for (Task j : jobs)
+                                    j.killIfRunning();
+                                deadline = -1;
+                                continue;
                             }
-                            try {
-                                r = r.add(timeoutMillis==-1 ? f.future.get() : f.future.get(timeoutMillis, TimeUnit.MILLISECONDS));
-                            } catch (TimeoutException e) {
-                                if (f.startTime>0 && System.currentTimeMillis()-f.startTime > this.timeout*1000) {
-                                    r.add(Result.fromFailure(new Failure("Test "+f.testClassFile+" timed out",e)));
-                                    f.future.cancel(true);
-                                } else {
-                                    continue;
-                                }
+                        }
+                        done++;
+
+                        try {
+                            List<Result> results = f.get();
+                            if (results==null) {
+                                skippedClasses.addAll(tasks.get(f).testClassFiles);
+                                continue;
                             }
+                            for (Result x : results)
+                                r.add(x);
+                        } catch (ExecutionException e) {
+                            e.printStackTrace();
+                            throw new MojoExecutionException("Failed to run a test",e);
+                        }
 
-                            break;
+                        if (skipAfterFailureCount>0 && !stopping && r.getFailureCount()+r.getErrorCount()>=skipAfterFailureCount) {
+                            stopping = true;
+                            for (Task j : jobs)
+                                j.skipped = true;
+                            deadline = System.currentTimeMillis()+skipAfterFailureGracePeriod*1000L;
                         }
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
-                        throw new MojoExecutionException("Failed to run a test",e);
                     }
-                }
-                Thread.currentThread().setName(oldName);
+                    Thread.currentThread().setName(oldName);
 
-                printResult(r.toTestResult(), System.currentTimeMillis()-startTime);
+                    closeLiveProgress();
+                    long totalTime = System.currentTimeMillis()-startTime;
+                    printResult(r.toTestResult(), totalTime);
+                    testsPassed = r.isSuccess();
+                    reportSkipped(skippedClasses);
+                    if (summary!=null)
+                        printSummary(totalTime);
 
-                if (!r.isSuccess() && !testFailureIgnore) {// fatal failure
-                    String msg = String.format("Tests run: %d,  Failures: %d,  Errors: %d", r.totalRun, r.failures.size(), r.errors.size());
-                    throw new MojoExecutionException(msg);
+                    if (!r.isSuccess() && !testFailureIgnore) {// fatal failure
+                        String msg = String.format("Tests run: %d,  Failures: %d,  Errors: %d", r.getTotalRun(), r.getFailureCount(), r.getErrorCount());
+                        throw new MojoExecutionException(msg);
+                    }
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to tally the test results",e);
+                } finally {
+                    r.close();
                 }
             } finally {
-                try {
-                    for (Port p : ports) {
+                closeLiveProgress();
+                watchdog.shutdownNow();
+                testRunners.shutdownNow();
+                if (cache!=null)
+                    cache.evict();
+
+                Map<String,Integer> loadedClasses = new HashMap<String,Integer>();
+                List<Integer> forkIds = new ArrayList<Integer>();
+                int reported = 0;   // number of forks that counted in loadedClasses
+                List<Future<Port>> all;
+                synchronized (ports) {
+                    all = new ArrayList<Future<Port>>(ports);
+                }
+                for (Future<Port> f : all) {
+                    Port p;
+                    try {
+                        p = f.get();
+                    } catch (ExecutionException e) {
+                        continue;   // failed to launch, and the error is already reported by the task that needed it
+                    }
+                    forkIds.add(p.id);
+                    if (p.killed || p.retired)  continue;
+                    try {
+                        if (warmUp) {
+                            for (String c : p.runner.getLoadedClasses()) {
+                                Integer n = loadedClasses.get(c);
+                                loadedClasses.put(c, n==null ? 1 : n+1);
+                            }
+                            reported++;
+                        }
+                        long t = tracer.start();
                         p.runner.tearDown();
                         p.channel.close();
+                        tracer.end(t,"tearDown","fork");
+                    } catch (IOException e) {
+                        // if this fails, we want the root cause to be displayed, not the close failure
+                        e.printStackTrace();
+                    }
+                }
+                synchronized (retirements) {
+                    for (Future<Void> f : retirements) {
+                        try {
+                            f.get();
+                        } catch (ExecutionException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+                spawner.shutdownNow();
+                remoteOps.shutdownNow();
+
+                synchronized (this) {
+                    if (outputMultiplexer!=null) {
+                        outputMultiplexer.close();
+                        outputMultiplexer = null;
+                    }
+                }
+                reportConnectTime();
+
+                if (reportFormat.equals("single")) {
+                    try {
+                        mergeReports(forkIds);
+                    } catch (IOException e) {
+                        getLog().warn("Failed to merge the test reports",e);
+                    }
+                }
+
+                if (warmUp) {
+                    try {
+                        saveHotClasses(loadedClasses, reported);
+                    } catch (IOException e) {
+                        getLog().warn("Failed to record classes to preload",e);
                     }
-                    remoteOps.shutdownNow();
-                } catch (IOException e) {
-                    // if this fails, we want the root cause to be displayed, not the close failure
-                    e.printStackTrace();
                 }
             }
         } catch (InterruptedException e) {
@@ -388,18 +1262,22 @@ public class TestMojo extends AbstractMojo
     }
 
     /**
-     * Forks a new JVM and pumps its output to the given {@link OutputStream}
+     * Forks a new JVM and pumps its output to {@link System#out}.
      *
-     * @param output
-     *      The stream will be closed upon the completion of the process.
+     * @param id
+     *      Identifies the fork in its console output.
      * @param executors
      *      Executes the remote requests.
      */
-    public Channel fork(OutputStream output, ExecutorService executors) throws IOException {
-        // let the child process come connect to this port
-        ServerSocket serverSocket = new ServerSocket();
-        serverSocket.bind(new InetSocketAddress("localhost",0));
-        int port = serverSocket.getLocalPort();
+    public ForkedChannel fork(int id, ExecutorService executors) throws IOException {
+        boolean pipe = forkTransport.equals("pipe");
+
+        ServerSocket serverSocket = null;
+        if (!pipe) {
+            // let the child process come connect to this port
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress("localhost",0));
+        }
 
         List<String> args = new ArrayList<String>();
         args.add(new File(System.getProperty("java.home"),"bin/java").getAbsolutePath());
@@ -407,6 +1285,9 @@ public class TestMojo extends AbstractMojo
         ClasspathBuilder cb = new ClasspathBuilder();
         cb.addJarOf(Channel.class).addJarOf(TestCase.class);
 
+        ClassDataArchive cds = getClassDataArchive(cb.toString());
+        if (cds!=null)
+            args.addAll(cds.getJvmArguments());
         addTokenized(args, debugForkedProcess);
         addTokenized(args, argLine);
         for (Entry<Object, Object> e : systemProperties.entrySet())
@@ -414,48 +1295,130 @@ public class TestMojo extends AbstractMojo
         args.add("-cp");
         args.add(cb.toString());
         args.add(Launcher.class.getName());
-        args.add("-connectTo");
-        args.add("localhost:"+ port);
+        if (!pipe) {
+            // without this option, Launcher talks over stdin/stdout and moves System.out to stderr
+            args.add("-connectTo");
+            args.add("localhost:"+ serverSocket.getLocalPort());
+        }
 
         // fork
+        long startTime = System.nanoTime();
+        long t = tracer.start();
         ProcessBuilder pb = new ProcessBuilder(args);
-        pb.redirectErrorStream(true);
-        final Process proc = pb.start();
-        proc.getOutputStream().close();
+        pb.redirectErrorStream(!pipe);
+        Process proc = pb.start();
+        tracer.end(t,"spawn","fork");
+        t = tracer.start();
 
-        // pump stream
-        final CopyThread t1 = new CopyThread("stream copy thread",proc.getInputStream(),output);
-        t1.start();
+        ForkedChannel ch;
+        if (pipe) {
+            OutputMultiplexer.Source output = getOutputMultiplexer().add(getOutputPrefix(id), proc.getErrorStream(), proc);
 
-        // connect to the child process
-        Socket s = serverSocket.accept();
-        serverSocket.close();
+            // whatever the JVM prints to stdout before the channel starts (such as the debugger port) goes to the header stream
+            ch = new ForkedChannel("Channel to child process #"+id, executors,
+                    new BufferedInputStream(proc.getInputStream()), new BufferedOutputStream(proc.getOutputStream()), System.out,
+                    proc, output, cds);
+        } else {
+            proc.getOutputStream().close();
+            OutputMultiplexer.Source output = getOutputMultiplexer().add(getOutputPrefix(id), proc.getInputStream(), proc);
 
-        return new Channel("Channel to child process port:"+port, executors,
-                new BufferedInputStream(new SocketInputStream(s)), new BufferedOutputStream(new SocketOutputStream(s))) {
-            /**
-             * Kill the process when the channel is severed.
-             */
-            @Override
-            protected synchronized void terminate(IOException e) {
-                super.terminate(e);
-                proc.destroy();
-                t1.interrupt();
+            // connect to the child process
+            Socket s;
+            try {
+                s = serverSocket.accept();
+            } finally {
+                serverSocket.close();
             }
 
-            @Override
-            public synchronized void close() throws IOException {
-                super.close();
-                // wait for the process to complete
-                try {
-                    proc.waitFor();
-                    t1.join();
-                } catch (InterruptedException e) {
-                    // process the interrupt later
-                    Thread.currentThread().interrupt();
-                }
+            ch = new ForkedChannel("Channel to child process port:"+serverSocket.getLocalPort(), executors,
+                    new BufferedInputStream(new SocketInputStream(s)), new BufferedOutputStream(new SocketOutputStream(s)), new NullOutputStream(),
+                    proc, output, cds);
+        }
+
+        // the channel is established once the handshake is done, which happens in the constructor
+        tracer.end(t,"connect","fork");
+        recordConnectTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-startTime));
+        return ch;
+    }
+
+    private String getOutputPrefix(int id) {
+        return concurrency>1 ? "[fork "+id+"] " : "";
+    }
+
+    private synchronized void recordConnectTime(long ms) {
+        getLog().debug("Fork connected in "+ms+"ms");
+        forksConnected++;
+        totalConnectTime += ms;
+        maxConnectTime = Math.max(maxConnectTime,ms);
+    }
+
+    private synchronized void reportConnectTime() {
+        if (forksConnected==0)  return;
+        getLog().info(String.format("Launched %d JVMs over %s, which took %dms on average and %dms at most to connect",
+                forksConnected, forkTransport, totalConnectTime/forksConnected, maxConnectTime));
+    }
+
+    private synchronized OutputMultiplexer getOutputMultiplexer() {
+        if (outputMultiplexer==null) {
+            // in the quiet mode, forks only print progress and failures, which are reported at the end anyway
+            outputMultiplexer = new OutputMultiplexer(liveProgress!=null ? liveProgress.getConsole() : System.out,
+                    quiet ? QUIET_LINES_PER_SECOND : 0);
+            outputMultiplexer.start();
+        }
+        return outputMultiplexer;
+    }
+
+    private File getHotClassesFile() {
+        return new File(project.getBuild().getDirectory(),"junit-hot-classes.txt");
+    }
+
+    /**
+     * Loads the list of classes to preload into forks, as recorded by the previous run.
+     */
+    private List<String> loadHotClasses() {
+        File f = getHotClassesFile();
+        if (!f.exists())    return Collections.emptyList();
+        try {
+            return FileUtils.readLines(f);
+        } catch (IOException e) {
+            getLog().warn("Failed to read "+f,e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Remembers the classes that were loaded by at least half of the forks, for the next run to preload.
+     *
+     * @param loadedClasses
+     *      Class names and the number of forks that loaded them.
+     * @param forks
+     *      Number of forks that reported their loaded classes.
+     */
+    private void saveHotClasses(Map<String,Integer> loadedClasses, int forks) throws IOException {
+        List<String> hot = new ArrayList<String>();
+        for (Entry<String,Integer> e : loadedClasses.entrySet())
+            if (e.getValue()*2>=forks)
+                hot.add(e.getKey());
+        Collections.sort(hot);
+        FileUtils.writeLines(getHotClassesFile(),hot);
+    }
+
+    /**
+     * Returns the class data sharing archive for forks launched with the given classpath,
+     * or null if the feature is off or unavailable.
+     */
+    private synchronized ClassDataArchive getClassDataArchive(String classpath) {
+        if (!classDataSharing)  return null;
+        if (classDataArchive==null) {
+            if (!ClassDataArchive.isSupported()) {
+                getLog().info("Class data sharing requires Java 13 or later. Forking without it");
+                classDataSharing = false;
+                return null;
             }
-        };
+            classDataArchive = new ClassDataArchive(new File(project.getBuild().getDirectory(),"junit-cds"),
+                    classpath, argLine+' '+systemProperties);
+        }
+        return classDataArchive;
     }
 
     private void addTokenized(List<String> args, String line) {
@@ -472,17 +1435,380 @@ public class TestMojo extends AbstractMojo
         return reportsDirectory;
     }
 
-    private TestSuite buildTestSuite(LocalTestCaseRunner r, TestSuite testSuite) throws MojoExecutionException {
+    /**
+     * Report fragment that the given fork writes when {@link #reportFormat} is "single".
+     */
+    private File getReportFragment(int forkId) {
+        return new File(getReportDirectory(),"junit-fork-"+forkId+".fragment");
+    }
+
+    /**
+     * Combines the report fragments from forks into a single report.
+     */
+    private void mergeReports(List<Integer> forkIds) throws IOException {
+        long t = tracer.start();
+        XmlReportWriter w = new XmlReportWriter(new File(getReportDirectory(),AGGREGATE_REPORT+".xml"),"all",compressReports);
+        try {
+            for (int id : forkIds) {
+                File f = getReportFragment(id);
+                if (f.exists())
+                    w.append(f);
+            }
+        } finally {
+            w.close();
+        }
+        for (int id : forkIds)
+            getReportFragment(id).delete();
+        tracer.end(t,"merge","reports");
+    }
+
+    private TestSuite buildTestSuite(LocalTestCaseRunner r, List<String> testClasses, FailFast failFast, TestSuite testSuite) {
         int index = test.indexOf( '#' );
         String methodName = null;
         if (index>=0) {
             methodName = test.substring( index + 1, test.length() );
         }         
-        for (String name : scanTestClasses().getIncludedFiles())
-            testSuite.addTest(r.buildTestCase(name + (methodName == null ? "" : "#" + methodName)));
+        for (String name : testClasses) {
+            Test t = r.buildTestCase(name + (methodName == null ? "" : "#" + methodName));
+            testSuite.addTest(failFast!=null ? failFast.wrap(t,name) : t);
+        }
         return testSuite;
     }
 
+    /**
+     * Lists up the test class files to run, in the order they should be executed.
+     */
+    private List<String> listTestClasses() throws MojoExecutionException {
+        long t = tracer.start();
+        List<String> classFiles = new ArrayList<String>(Arrays.asList(scanTestClasses().getIncludedFiles()));
+        if (incremental)
+            classFiles = selectAffectedTestClasses(classFiles);
+        tracer.end(t,"scan","test classes");
+        if (runOrder.equals("balanced")) {
+            getDurationHistory().sortLongestFirst(classFiles);
+        } else
+        if (runOrder.equals("failedfirst")) {
+            classFiles = sortFailedFirst(classFiles);
+        } else
+        if (!runOrder.equals("filesystem")) {
+            throw new MojoExecutionException("Unknown runOrder: "+runOrder);
+        }
+        return classFiles;
+    }
+
+    /**
+     * Puts the test classes that failed in the previous run first, then those whose class files
+     * have changed since then, and then the rest. Each group is sorted longest first.
+     */
+    private List<String> sortFailedFirst(List<String> classFiles) {
+        classFileState = new ClassFileState(getClassFileStateFile()).load();
+        scannedClasses = new ArrayList<String>(classFiles);
+
+        File dir = getTestOutputDirectory();
+        List<String> failed = new ArrayList<String>();
+        List<String> changed = new ArrayList<String>();
+        List<String> rest = new ArrayList<String>();
+        for (String f : classFiles) {
+            TimingDatabase.Entry e = timings.get(DurationHistory.toClassName(f));
+            if (e!=null && !e.success)
+                failed.add(f);
+            else if (classFileState.hasChanged(f, new File(dir,f)))
+                changed.add(f);
+            else
+                rest.add(f);
+        }
+        getLog().info(String.format("Running %d test classes that failed last time and %d changed test classes first",
+                failed.size(), changed.size()));
+
+        DurationHistory history = getDurationHistory();
+        history.sortLongestFirst(failed);
+        history.sortLongestFirst(changed);
+        history.sortLongestFirst(rest);
+        List<String> r = new ArrayList<String>(classFiles.size());
+        r.addAll(failed);
+        r.addAll(changed);
+        r.addAll(rest);
+        return r;
+    }
+
+    /**
+     * Records the state of the test classes that ran, so that the next run can tell which ones have changed.
+     */
+    private void saveClassFileState() throws IOException {
+        File dir = getTestOutputDirectory();
+        Set<String> skipped = new HashSet<String>();
+        for (String f : skippedClasses)
+            skipped.add(f.split("#")[0]);  // a part of a split class
+        for (String f : scannedClasses)
+            if (!skipped.contains(f))
+                classFileState.update(f, new File(dir,f));
+        classFileState.save();
+    }
+
+    private File getClassFileStateFile() {
+        return new File(project.getBuild().getDirectory(),"junit-class-state.db");
+    }
+
+    /**
+     * Narrows down the test classes to those affected by the changes since the last successful run.
+     */
+    private List<String> selectAffectedTestClasses(List<String> classFiles) throws MojoExecutionException {
+        try {
+            File classes = new File(project.getBuild().getOutputDirectory());
+            File testClasses = getTestOutputDirectory();
+
+            // the selection of tests is a part of the environment, so that an index recorded by a run of
+            // a different set of tests (say with -Dtest) doesn't let the tests outside that set go untested
+            Digester signature = new Digester();
+            signature.update(test);
+            if (excludes!=null)
+                for (String e : excludes)
+                    signature.update(e);
+            if (test.indexOf('#')>=0)
+                testsNarrowed = true;
+
+            // jar files on the classpath are captured by their time stamps, and resources by their contents
+            for (String e : classpathElements) {
+                File f = new File(e);
+                if (f.isDirectory())
+                    digestResources(signature, f, "", !f.equals(classes) && !f.equals(testClasses));
+                else
+                    signature.update(f.getPath()).update(f.length()).update(f.lastModified());
+            }
+
+            DependencyIndex old = DependencyIndex.load(getDependencyIndexFile());
+            dependencyIndex = DependencyIndex.build(Arrays.asList(classes,testClasses), signature.toString(), old);
+
+            if (fullRun || old==null || !dependencyIndex.isCompatibleWith(old))
+                return classFiles;
+
+            Set<String> affected = dependencyIndex.getAffectedClasses(old);
+            List<String> r = new ArrayList<String>();
+            previousDependencyIndex = old;
+            allTestClasses = new HashSet<String>();
+            selectedTestClasses = new HashSet<String>();
+            for (String f : classFiles) {
+                String c = DurationHistory.toClassName(f);
+                allTestClasses.add(c);
+                if (affected.contains(c)) {
+                    r.add(f);
+                    if (test.indexOf('#')<0)    // otherwise only some methods run
+                        selectedTestClasses.add(c);
+                }
+            }
+            if (r.size()<classFiles.size())
+                testsNarrowed = true;
+            getLog().info(String.format("Running %d out of %d test classes affected by the changes", r.size(), classFiles.size()));
+            return r;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to compute the dependencies between classes",e);
+        }
+    }
+
+    /**
+     * Digests the files in a directory on the classpath, in a stable order.
+     *
+     * @param classFiles
+     *      False to leave out the class files, which are covered by {@link #dependencyIndex}.
+     */
+    private void digestResources(Digester d, File dir, String prefix, boolean classFiles) throws IOException {
+        File[] children = dir.listFiles();
+        if (children==null)     return;
+        Arrays.sort(children);
+        for (File f : children) {
+            String name = prefix+f.getName();
+            if (f.isDirectory()) {
+                digestResources(d, f, name+'/', classFiles);
+            } else
+            if (classFiles || !name.endsWith(".class")) {
+                d.update(name).update(f);
+            }
+        }
+    }
+
+    private File getDependencyIndexFile() {
+        return new File(project.getBuild().getDirectory(),"junit-deps.idx");
+    }
+
+    /**
+     * Picks up the test classes that had at least {@link #splitThreshold} test methods in the previous runs.
+     * Those that took less than two {@link #batchTime}s aren't worth splitting, for the parts would be too short
+     * to pay for the extra round trips.
+     */
+    private List<String> getSplitCandidates(List<String> classFiles) {
+        List<String> r = new ArrayList<String>();
+        if (splitThreshold<=0 || concurrency<2 || test.indexOf('#')>=0)
+            return r;   // splitting is disabled, pointless, or the user is picking the methods
+        for (String f : classFiles) {
+            TimingDatabase.Entry e = timings.get(DurationHistory.toClassName(f));
+            if (e!=null && e.tests.size()>=splitThreshold && e.getDuration()>=2*batchTime)
+                r.add(f);
+        }
+        return r;
+    }
+
+    /**
+     * Replaces large test classes by several "Foo.class#testA+testB" parts, each of which runs a subset of the methods.
+     *
+     * <p>
+     * Methods are distributed by their execution time in the previous runs, so that the parts take about the same time.
+     *
+     * @param methods
+     *      Test methods of the classes to split, as reported by {@link TestCaseRunner#listTestMethods(List)}.
+     */
+    private List<String> splitLargeClasses(List<String> classFiles, Map<String,List<String>> methods) {
+        DurationHistory history = getDurationHistory();
+        List<String> r = new ArrayList<String>(classFiles.size());
+        int n=0;
+        for (String f : classFiles) {
+            List<String> names = methods.get(f);
+            int parts = names==null ? 0 : Math.min(concurrency, (names.size()+splitThreshold-1)/splitThreshold);
+            if (parts<2 || !isSplittable(names)) {
+                r.add(f);
+                continue;
+            }
+
+            // longest method first, each to the part that's the shortest so far
+            final TimingDatabase.Entry e = timings.get(DurationHistory.toClassName(f));
+            names = new ArrayList<String>(names);
+            Collections.sort(names, new Comparator<String>() {
+                public int compare(String o1, String o2) {
+                    long l = getDuration(o1), r = getDuration(o2);
+                    return l>r ? -1 : l<r ? 1 : 0;
+                }
+
+                private long getDuration(String name) {
+                    TimingDatabase.Entry t = e.tests.get(name);
+                    return t==null ? 0 : t.getDuration();
+                }
+            });
+            StringBuilder[] part = new StringBuilder[parts];
+            long[] total = new long[parts];
+            int[] count = new int[parts];
+            for (int i=0; i<names.size(); i++) {
+                int k = 0;
+                for (int j=1; j<parts; j++)
+                    if (total[j]<total[k] || (total[j]==total[k] && count[j]<count[k]))
+                        k = j;
+                TimingDatabase.Entry t = e.tests.get(names.get(i));
+                total[k] += t==null ? 0 : t.getDuration();
+                count[k]++;
+                if (part[k]==null)  part[k] = new StringBuilder(f).append('#');
+                else                part[k].append('+');
+                part[k].append(names.get(i));
+            }
+            for (int k=0; k<parts; k++) {
+                String p = part[k].toString();
+                history.add(DurationHistory.toClassName(p), total[k]);
+                r.add(p);
+            }
+            n++;
+        }
+
+        if (n>0) {
+            getLog().info(String.format("Splitting %d large test classes into smaller parts", n));
+            if (runOrder.equals("balanced"))
+                history.sortLongestFirst(r);
+        }
+        return r;
+    }
+
+    /**
+     * Method names need to be usable as patterns for {@link LocalTestCaseRunner#buildTestCase(String)}.
+     */
+    private boolean isSplittable(List<String> methodNames) {
+        for (String m : methodNames)
+            if (m.indexOf('+')>=0 || m.indexOf('*')>=0 || m.indexOf('?')>=0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Test case name to pass to {@link TestCaseRunner#runTestCase(String)}, which includes the method name
+     * if a specific method is requested.
+     */
+    private String toTestName(String testClassFile) {
+        int index = test.indexOf( '#' );
+        if (index>=0) {
+            String methodName = test.substring( index + 1, test.length() );
+            return testClassFile+"#"+methodName;
+        }
+        return testClassFile;
+    }
+
+    /**
+     * Creates the result cache, or returns null if it's not enabled.
+     */
+    private ResultCache createResultCache() throws MojoExecutionException {
+        if (resultCacheDirectory==null)     return null;
+        if (!reportFormat.equals("perClass")) {
+            getLog().warn("Result cache is disabled because it needs reportFormat=perClass");
+            return null;
+        }
+        try {
+            Digester env = new Digester();
+            env.update(System.getProperty("java.version"));
+            env.update(argLine);
+            for (Object key : new TreeSet<Object>(systemProperties.keySet()))
+                env.update(key.toString()).update(systemProperties.getProperty(key.toString()));
+            ResultCache.digestClasspath(env, classpathElements);
+
+            resultCacheDirectory.mkdirs();
+            return new ResultCache(resultCacheDirectory, resultCacheSize*1024L*1024L, env.toString());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to compute the hash of the classpath",e);
+        }
+    }
+
+    /**
+     * Groups test classes into batches, each of which is sent to a fork in one go.
+     *
+     * <p>
+     * Test classes known to be fast are grouped together until the batch adds up to {@link #batchTime},
+     * while slow ones, the ones we know nothing about, and the parts of {@linkplain #splitLargeClasses split classes}
+     * go alone. The order of the test classes is preserved.
+     *
+     * <p>
+     * With {@link #skipAfterFailureCount}, every test class goes alone. The results of a batch only come back
+     * when the whole batch is done, which is too late to stop on the failures in it, and they are lost
+     * altogether if the batch is aborted.
+     */
+    private List<List<String>> makeBatches(List<String> classFiles) {
+        DurationHistory history = getDurationHistory();
+        List<List<String>> batches = new ArrayList<List<String>>();
+
+        if (skipAfterFailureCount>0) {
+            for (String f : classFiles)
+                batches.add(Collections.singletonList(f));
+            return batches;
+        }
+
+        List<String> batch = null;
+        long batchTotal = 0;
+        for (String f : classFiles) {
+            String className = DurationHistory.toClassName(f);
+            long d = history.estimate(className);
+            if (!history.isKnown(className) || d>=batchTime || f.indexOf('#')>=0) {
+                batches.add(Collections.singletonList(f));
+                continue;
+            }
+
+            if (batch==null || batchTotal+d>batchTime || batch.size()>=MAX_BATCH_SIZE) {
+                batches.add(batch = new ArrayList<String>());
+                batchTotal = 0;
+            }
+            batch.add(f);
+            batchTotal += d;
+        }
+        return batches;
+    }
+
+    private DurationHistory getDurationHistory() {
+        if (durationHistory==null)
+            durationHistory = timings.isEmpty() ? DurationHistory.fromReports(getReportDirectory(),getTestOutputDirectory()) : timings.toDurationHistory();
+        return durationHistory;
+    }
+
     private DirectoryScanner scanTestClasses() {
         FileSet fs = new FileSet();
         fs.setDir(getTestOutputDirectory());
@@ -517,4 +1843,23 @@ public class TestMojo extends AbstractMojo
         return urls;
     }
 
+    /**
+     * Console output from forks in the quiet mode is limited to this many lines per second.
+     */
+    private static final int QUIET_LINES_PER_SECOND = 50;
+
+    /**
+     * Base name of the report file when all the results go into one file.
+     */
+    private static final String AGGREGATE_REPORT = DurationHistory.AGGREGATE_PREFIX+"all";
+
+    /**
+     * Upper bound on the number of test classes sent in one remote call.
+     */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * Number of test failures kept in memory until the end of the run. The rest are kept on disk.
+     */
+    private static final int MAX_FAILURES_IN_MEMORY = 100;
 }
@@ -0,0 +1,95 @@
+package com.sun.maven.junit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link OutputStream} that passes everything through to another stream, while also capturing
+ * what each thread writes into a buffer of its own.
+ *
+ * <p>
+ * This is what lets tests that run concurrently in the same JVM each get their own output,
+ * even though {@link System#out} is shared by all of them.
+ * Output from a thread that isn't capturing (such as a thread that a test started in the background)
+ * is attributed to the capture in progress, if there's only one.
+ */
+final class ThreadCaptureStream extends OutputStream {
+    private final OutputStream base;
+    /**
+     * Configuration of the {@link CaptureBuffer}s.
+     */
+    private final int memoryLimit;
+    private final long maxSize;
+    private final ThreadLocal<CaptureBuffer> buffer = new ThreadLocal<CaptureBuffer>();
+    /**
+     * All the captures in progress.
+     */
+    private final Set<CaptureBuffer> active = new HashSet<CaptureBuffer>();
+
+    ThreadCaptureStream(OutputStream base, int memoryLimit, long maxSize) {
+        this.base = base;
+        this.memoryLimit = memoryLimit;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Starts capturing the output from the current thread.
+     */
+    public void start() {
+        CaptureBuffer buf = new CaptureBuffer(memoryLimit,maxSize);
+        CaptureBuffer old = stop();
+        if (old!=null)  old.close();
+        buffer.set(buf);
+        synchronized (active) {
+            active.add(buf);
+        }
+    }
+
+    /**
+     * Stops capturing the output from the current thread and returns what's captured.
+     * The caller is responsible for closing the returned buffer.
+     *
+     * @return
+     *      null if the current thread wasn't capturing.
+     */
+    public CaptureBuffer stop() {
+        CaptureBuffer buf = buffer.get();
+        if (buf==null)  return null;
+        buffer.remove();
+        synchronized (active) {
+            active.remove(buf);
+        }
+        return buf;
+    }
+
+    private CaptureBuffer current() {
+        CaptureBuffer buf = buffer.get();
+        if (buf!=null)  return buf;
+        synchronized (active) {
+            if (active.size()==1)
+                return active.iterator().next();
+        }
+        return null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        base.write(b);
+        CaptureBuffer buf = current();
+        if (buf!=null)  buf.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        base.write(b, off, len);
+        CaptureBuffer buf = current();
+        if (buf!=null)  buf.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        base.flush();
+    }
+}
@@ -0,0 +1,277 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Timing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persisted record of test execution times, maintained across builds.
+ *
+ * <p>
+ * For every test class and every test in it, this keeps the execution time of the last N runs,
+ * whether it passed the last time, and which fork ran it. The file is a compact binary format
+ * so that it can be loaded quickly even for a project with lots of tests.
+ *
+ * <p>
+ * This class is thread-safe, so that results coming back from concurrent executions can be recorded
+ * as they arrive.
+ */
+final class TimingDatabase {
+    /**
+     * Execution history of a test class or a single test.
+     */
+    static final class Entry {
+        final String name;
+        /**
+         * Execution time of the recent runs in milliseconds, oldest first.
+         */
+        private int[] samples = new int[0];
+        /**
+         * Result of the last run.
+         */
+        boolean success = true;
+        /**
+         * Fork that ran this last time. 0 if tests ran in process.
+         */
+        int forkId;
+        /**
+         * Tests in this class, keyed by their names. Always empty for entries of tests.
+         */
+        final Map<String,Entry> tests = new LinkedHashMap<String,Entry>();
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        void addSample(long millis, int history) {
+            int len = Math.min(samples.length+1, history);
+            int[] n = new int[len];
+            System.arraycopy(samples, samples.length-(len-1), n, 0, len-1);
+            n[len-1] = (int)Math.min(millis,Integer.MAX_VALUE);
+            samples = n;
+        }
+
+        /**
+         * Smoothed execution time, which is the average over the recorded runs.
+         */
+        long getDuration() {
+            if (samples.length==0)  return 0;
+            long sum = 0;
+            for (int s : samples)
+                sum += s;
+            return sum/samples.length;
+        }
+
+        Entry getTest(String name) {
+            Entry e = tests.get(name);
+            if (e==null)
+                tests.put(name, e=new Entry(name));
+            return e;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeBoolean(success);
+            out.writeInt(forkId);
+            out.writeByte(samples.length);
+            for (int s : samples)
+                out.writeInt(s);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            Entry e = new Entry(in.readUTF());
+            e.success = in.readBoolean();
+            e.forkId = in.readInt();
+            e.samples = new int[in.readUnsignedByte()];
+            for (int i=0; i<e.samples.length; i++)
+                e.samples[i] = in.readInt();
+            return e;
+        }
+    }
+
+    private final File file;
+    /**
+     * Number of runs to keep for each entry.
+     */
+    private final int history;
+    private final Map<String,Entry> classes = new HashMap<String,Entry>();
+
+    /**
+     * @param file
+     *      File to persist the data into.
+     * @param history
+     *      Execution time is smoothed over this many recent runs.
+     */
+    public TimingDatabase(File file, int history) {
+        this.file = file;
+        this.history = Math.max(1,Math.min(history,255));
+    }
+
+    /**
+     * Loads the data from the disk, if it's there.
+     * A missing or broken file is treated as no history.
+     */
+    public synchronized TimingDatabase load() {
+        classes.clear();
+        if (!file.exists())     return this;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt()!=MAGIC)    return this;
+                int n = in.readInt();
+                for (int i=0; i<n; i++) {
+                    Entry c = Entry.read(in);
+                    int m = in.readInt();
+                    for (int j=0; j<m; j++) {
+                        Entry t = Entry.read(in);
+                        c.tests.put(t.name,t);
+                    }
+                    classes.put(c.name,c);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // corrupted. start afresh
+            classes.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Writes the data back to the disk.
+     */
+    public synchronized void save() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = new File(dir, file.getName()+".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(classes.size());
+            for (Entry c : classes.values()) {
+                c.write(out);
+                out.writeInt(c.tests.size());
+                for (Entry t : c.tests.values())
+                    t.write(out);
+            }
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to rename "+tmp+" to "+file);
+    }
+
+    public synchronized boolean isEmpty() {
+        return classes.isEmpty();
+    }
+
+    /**
+     * Records the result of a test case run.
+     *
+     * @param forkId
+     *      Identifies the fork that ran the test. 0 if ran in process.
+     */
+    public synchronized void record(Result r, int forkId) {
+        record(r, forkId, true);
+    }
+
+    /**
+     * Records the result of a run that only covered some of the tests in a class.
+     * The execution time of the class is left intact, since the run doesn't tell us that.
+     */
+    public synchronized void recordTests(Result r, int forkId) {
+        record(r, forkId, false);
+    }
+
+    private void record(Result r, int forkId, boolean wholeClass) {
+        Map<String,Long> classTimes = new LinkedHashMap<String,Long>();
+        Map<String,Boolean> classResults = new HashMap<String,Boolean>();
+
+        for (Timing t : r.timings) {
+            Entry e = getClass(t.className).getTest(t.testName);
+            e.addSample(t.time,history);
+            e.success = t.success;
+            e.forkId = forkId;
+
+            Long v = classTimes.get(t.className);
+            classTimes.put(t.className, v==null ? t.time : v+t.time);
+            Boolean b = classResults.get(t.className);
+            classResults.put(t.className, (b==null || b) && t.success);
+        }
+
+        for (Map.Entry<String,Long> ct : classTimes.entrySet()) {
+            Entry e = getClass(ct.getKey());
+            // if the whole run is about this class, the wall clock time is more accurate
+            if (wholeClass) {
+                e.addSample(classTimes.size()==1 && r.duration>0 ? r.duration : ct.getValue(), history);
+                e.success = classResults.get(ct.getKey());
+            } else {
+                // other parts of the class may have run elsewhere
+                e.success = true;
+                for (Entry t : e.tests.values())
+                    e.success &= t.success;
+            }
+            e.forkId = forkId;
+        }
+    }
+
+    /**
+     * Records that a test class got killed before it completed, which counts as a failure.
+     *
+     * @param millis
+     *      How long it ran until then, or -1 if only some of its tests ran, in which case
+     *      the execution time of the class is left intact.
+     */
+    public synchronized void recordTimeout(String className, long millis, int forkId) {
+        Entry e = getClass(className);
+        if (millis>=0)
+            e.addSample(millis,history);
+        e.success = false;
+        e.forkId = forkId;
+    }
+
+    /**
+     * Gets the history of the given test class, or null if we've never seen it.
+     */
+    public synchronized Entry get(String className) {
+        return classes.get(className);
+    }
+
+    public synchronized Collection<Entry> getClasses() {
+        return new ArrayList<Entry>(classes.values());
+    }
+
+    /**
+     * Execution time of test classes as {@link DurationHistory}.
+     */
+    public synchronized DurationHistory toDurationHistory() {
+        DurationHistory h = new DurationHistory();
+        for (Entry c : classes.values())
+            h.add(c.name, c.getDuration());
+        return h;
+    }
+
+    private Entry getClass(String name) {
+        Entry e = classes.get(name);
+        if (e==null)
+            classes.put(name, e=new Entry(name));
+        return e;
+    }
+
+    private static final int MAGIC = 0x4A544431; // "JTD1"
+}
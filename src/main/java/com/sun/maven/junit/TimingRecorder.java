@@ -0,0 +1,53 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Timing;
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestListener;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitVersionHelper;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link TestListener} that measures how long each test takes.
+ *
+ * <p>
+ * Tests can run concurrently, so this class is thread-safe.
+ */
+final class TimingRecorder implements TestListener {
+    private final Map<Test,Long> startTimes = new IdentityHashMap<Test,Long>();
+    private final Map<Test,Boolean> failed = new IdentityHashMap<Test,Boolean>();
+    private final List<Timing> timings = new ArrayList<Timing>();
+
+    public synchronized void startTest(Test test) {
+        startTimes.put(test,System.currentTimeMillis());
+    }
+
+    public synchronized void addError(Test test, Throwable t) {
+        failed.put(test,true);
+    }
+
+    public synchronized void addFailure(Test test, AssertionFailedError t) {
+        failed.put(test,true);
+    }
+
+    public synchronized void endTest(Test test) {
+        Long start = startTimes.remove(test);
+        if (start==null)    return; // huh?
+
+        String className = JUnitVersionHelper.getTestCaseClassName(test);
+        String testName = JUnitVersionHelper.getTestCaseName(test);
+        if (testName==null)     testName = "unknown";
+        timings.add(new Timing(className, testName, System.currentTimeMillis()-start, failed.remove(test)==null));
+    }
+
+    /**
+     * Timings of the tests that completed so far.
+     */
+    public synchronized List<Timing> getTimings() {
+        return new ArrayList<Timing>(timings);
+    }
+}
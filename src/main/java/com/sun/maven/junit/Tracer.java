@@ -0,0 +1,252 @@
+package com.sun.maven.junit;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Records how long each phase of the test execution takes, such as launching forks, loading test classes,
+ * running tests and writing reports.
+ *
+ * <p>
+ * The result can be written in the Chrome trace event format, which can be viewed in chrome://tracing or Perfetto.
+ * Each forked JVM records its own spans, which are sent back along with {@link Result}s.
+ *
+ * <p>
+ * When disabled, recording a span costs nothing more than checking a flag.
+ * The usage is:
+ * <pre>
+ * long t = tracer.start();
+ * try {
+ *     ...
+ * } finally {
+ *     tracer.end(t,"category","name");
+ * }
+ * </pre>
+ */
+final class Tracer implements Serializable {
+    /**
+     * One recorded phase.
+     */
+    static final class Span implements Serializable {
+        /**
+         * Kind of the phase, such as "load" or "test". Spans are summarized by this.
+         */
+        final String category;
+        /**
+         * What the phase was about, such as the test class.
+         */
+        final String name;
+        /**
+         * Identifies the JVM. 0 for Maven, or the fork ID.
+         */
+        final int pid;
+        final long tid;
+        /**
+         * Start time and duration in microseconds. The start time is since the epoch,
+         * so that the spans from different JVMs can be put on the same timeline.
+         */
+        final long start, duration;
+
+        Span(String category, String name, int pid, long tid, long start, long duration) {
+            this.category = category;
+            this.name = name;
+            this.pid = pid;
+            this.tid = tid;
+            this.start = start;
+            this.duration = duration;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private final boolean enabled;
+    private final int pid;
+    private final List<Span> spans = new ArrayList<Span>();
+
+    /**
+     * @param pid
+     *      Identifies the JVM this tracer runs in. 0 for Maven, or the fork ID.
+     */
+    Tracer(boolean enabled, int pid) {
+        this.enabled = enabled;
+        this.pid = pid;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates a tracer to be sent to a forked JVM, which is enabled if this one is.
+     */
+    public Tracer forFork(int id) {
+        return enabled ? new Tracer(true,id) : DISABLED;
+    }
+
+    /**
+     * Marks the start of a span.
+     *
+     * @return
+     *      The value to be passed to {@link #end(long, String, String)}.
+     */
+    public long start() {
+        return enabled ? now() : 0;
+    }
+
+    /**
+     * Records a span that started at the given time and ends now.
+     */
+    public void end(long start, String category, String name) {
+        if (!enabled)   return;
+        Span s = new Span(category, name, pid, Thread.currentThread().getId(), start, now()-start);
+        synchronized (spans) {
+            spans.add(s);
+        }
+    }
+
+    /**
+     * Adds spans recorded elsewhere, such as in a forked JVM.
+     */
+    public void addAll(List<Span> spans) {
+        synchronized (this.spans) {
+            this.spans.addAll(spans);
+        }
+    }
+
+    /**
+     * Removes and returns the spans recorded so far.
+     *
+     * @return
+     *      null if there's none.
+     */
+    public List<Span> drain() {
+        if (!enabled)   return null;
+        synchronized (spans) {
+            if (spans.isEmpty())    return null;
+            List<Span> r = new ArrayList<Span>(spans);
+            spans.clear();
+            return r;
+        }
+    }
+
+    /**
+     * Writes the spans recorded so far in the Chrome trace event format.
+     */
+    public void writeChromeTrace(File file) throws IOException {
+        List<Span> all;
+        synchronized (spans) {
+            all = new ArrayList<Span>(spans);
+        }
+
+        long origin = Long.MAX_VALUE;
+        TreeSet<Integer> pids = new TreeSet<Integer>();
+        for (Span s : all) {
+            origin = Math.min(origin, s.start);
+            pids.add(s.pid);
+        }
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),"UTF-8"));
+        try {
+            w.write("{\"traceEvents\":[\n");
+            boolean first = true;
+            for (int p : pids) {
+                if (!first) w.write(",\n");
+                first = false;
+                w.write(String.format("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":%d,\"args\":{\"name\":\"%s\"}}",
+                        p, p==0 ? "maven" : "fork "+p));
+            }
+            for (Span s : all) {
+                if (!first) w.write(",\n");
+                first = false;
+                w.write(String.format("{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%d,\"dur\":%d,\"pid\":%d,\"tid\":%d}",
+                        escape(s.name), escape(s.category), s.start-origin, s.duration, s.pid, s.tid));
+            }
+            w.write("\n]}\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Prints how much time went to each category of spans, largest first.
+     */
+    public void printSummary(Log log) {
+        class Total {
+            final String category;
+            int count;
+            long sum, max;
+
+            Total(String category) {
+                this.category = category;
+            }
+        }
+
+        Map<String,Total> totals = new HashMap<String,Total>();
+        synchronized (spans) {
+            for (Span s : spans) {
+                Total t = totals.get(s.category);
+                if (t==null)
+                    totals.put(s.category, t=new Total(s.category));
+                t.count++;
+                t.sum += s.duration;
+                t.max = Math.max(t.max, s.duration);
+            }
+        }
+
+        List<Total> sorted = new ArrayList<Total>(totals.values());
+        Collections.sort(sorted, new Comparator<Total>() {
+            public int compare(Total a, Total b) {
+                return Long.signum(b.sum-a.sum);
+            }
+        });
+
+        log.info(String.format("%-12s %8s %12s %10s %10s", "Phase", "Count", "Total(ms)", "Avg(ms)", "Max(ms)"));
+        for (Total t : sorted)
+            log.info(String.format("%-12s %8d %12d %10.1f %10d", t.category, t.count, t.sum/1000, t.sum/1000.0/t.count, t.max/1000));
+    }
+
+    /**
+     * Escapes a string to be put in a JSON string literal.
+     */
+    static String escape(String s) {
+        StringBuilder b = new StringBuilder(s.length());
+        for (int i=0; i<s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch=='"' || ch=='\\')    b.append('\\').append(ch);
+            else if (ch<0x20)           b.append(String.format("\\u%04x",(int)ch));
+            else                        b.append(ch);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Current time in microseconds since the epoch, with the precision of {@link System#nanoTime()}.
+     */
+    private static long now() {
+        return ORIGIN+System.nanoTime()/1000;
+    }
+
+    private static final long ORIGIN = System.currentTimeMillis()*1000-System.nanoTime()/1000;
+
+    /**
+     * Records nothing.
+     */
+    static final Tracer DISABLED = new Tracer(false,0);
+
+    private static final long serialVersionUID = 1L;
+}
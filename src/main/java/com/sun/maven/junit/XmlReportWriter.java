@@ -0,0 +1,317 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTestRunner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a test report XML file in the format of Ant's XML formatter (which is also what Surefire produces),
+ * one test case at a time.
+ *
+ * <p>
+ * Nothing is kept in memory other than the buffer. The counts in the &lt;testsuite> element aren't known until
+ * the end, so the start tag has some blank space reserved, which gets filled in when the report is closed.
+ *
+ * <p>
+ * This can also write a fragment, which is just a sequence of test cases, to be later combined into
+ * a complete report by {@link #append(File)}.
+ */
+final class XmlReportWriter {
+    private final File file;
+    private final FileChannel channel;
+    private final Writer w;
+    /**
+     * Escape the text and attribute values written through them.
+     */
+    private final Writer text, attr;
+    /**
+     * File position of the space reserved for the counts. -1 if writing a fragment.
+     */
+    private final long countsPosition;
+    /**
+     * Compress the report once it's complete.
+     */
+    private final boolean compress;
+
+    private int tests, failures, errors;
+    private long time;
+
+    /**
+     * @param suiteName
+     *      Name of the test suite, or null to write a fragment.
+     * @param compress
+     *      If true, the report is compressed into "file.gz" when it's complete.
+     */
+    XmlReportWriter(File file, String suiteName, boolean compress) throws IOException {
+        this.file = file;
+        this.compress = compress;
+        FileOutputStream fos = new FileOutputStream(file);
+        channel = fos.getChannel();
+        w = new BufferedWriter(new OutputStreamWriter(fos,"UTF-8"),BUFFER_SIZE);
+        text = new EscapingWriter(w,false);
+        attr = new EscapingWriter(w,true);
+
+        if (suiteName==null) {
+            countsPosition = -1;
+            return;
+        }
+
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<testsuite");
+        attribute("name",suiteName);
+        attribute("hostname",getHostName());
+        attribute("timestamp",new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+        w.flush();
+        countsPosition = channel.position();
+        for (int i=0; i<COUNTS_SPACE; i++)
+            w.write(' ');
+        w.write(">\n  <properties>\n");
+        Properties props = System.getProperties();
+        for (Map.Entry<Object,Object> e : props.entrySet()) {
+            w.write("    <property");
+            attribute("name",String.valueOf(e.getKey()));
+            attribute("value",String.valueOf(e.getValue()));
+            w.write(" />\n");
+        }
+        w.write("  </properties>\n");
+    }
+
+    private void attribute(String name, String value) throws IOException {
+        w.write(' ');
+        w.write(name);
+        w.write("=\"");
+        attr.write(value);
+        w.write('"');
+    }
+
+    /**
+     * Starts a &lt;testcase> element. Failures, errors and outputs can follow, then {@link #endTestCase()}.
+     *
+     * @param time
+     *      Execution time in milliseconds.
+     */
+    public void startTestCase(String className, String name, long time) throws IOException {
+        tests++;
+        this.time += time;
+        w.write("  <testcase");
+        attribute("classname",className);
+        attribute("name",name);
+        attribute("time",formatTime(time));
+        w.write(">\n");
+    }
+
+    public void failure(Throwable t, boolean error) throws IOException {
+        if (error)  errors++;
+        else        failures++;
+        String tag = error ? "error" : "failure";
+        w.write("    <"+tag);
+        if (t.getMessage()!=null)
+            attribute("message",t.getMessage());
+        attribute("type",t.getClass().getName());
+        w.write('>');
+        text.write(JUnitTestRunner.getFilteredTrace(t));
+        w.write("</"+tag+">\n");
+    }
+
+    /**
+     * Writes the output of the test case.
+     *
+     * @param tag
+     *      "system-out" or "system-err".
+     */
+    public void output(String tag, CaptureBuffer data) throws IOException {
+        if (data==null || data.size()==0)  return;
+        w.write("    <"+tag+">");
+        data.writeTo(text);
+        w.write("</"+tag+">\n");
+    }
+
+    public void endTestCase() throws IOException {
+        w.write("  </testcase>\n");
+    }
+
+    /**
+     * Copies the test cases from a fragment. If the fragment ends in the middle of a test case
+     * (because the JVM writing it was killed), the incomplete test case is left out.
+     */
+    public void append(File fragment) throws IOException {
+        // tags always start a line, since '<' in the text is escaped
+        int complete = 0;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(fragment),"UTF-8"));
+        try {
+            String line;
+            for (int n=1; (line=in.readLine())!=null; n++)
+                if (line.equals("  </testcase>"))
+                    complete = n;
+        } finally {
+            in.close();
+        }
+
+        in = new BufferedReader(new InputStreamReader(new FileInputStream(fragment),"UTF-8"));
+        try {
+            for (int n=0; n<complete; n++) {
+                String line = in.readLine();
+                if (line.startsWith("  <testcase ")) {
+                    tests++;
+                    int idx = line.indexOf(" time=\"");
+                    if (idx>=0) {
+                        int end = line.indexOf('"',idx+7);
+                        try {
+                            time += Math.round(Double.parseDouble(line.substring(idx+7,end))*1000);
+                        } catch (NumberFormatException e) {
+                            // leave it out
+                        }
+                    }
+                } else
+                if (line.startsWith("    <failure")) {
+                    failures++;
+                } else
+                if (line.startsWith("    <error")) {
+                    errors++;
+                }
+                w.write(line);
+                w.write('\n');
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Completes the report and fills in the counts.
+     */
+    public void close() throws IOException {
+        try {
+            if (countsPosition>=0) {
+                w.write("</testsuite>\n");
+                w.flush();
+
+                String counts = String.format(" tests=\"%d\" failures=\"%d\" errors=\"%d\" skipped=\"0\" time=\"%s\"",
+                        tests, failures, errors, formatTime(time));
+                channel.write(ByteBuffer.wrap(counts.getBytes("UTF-8")), countsPosition);
+            }
+        } finally {
+            w.close();
+        }
+
+        if (compress) {
+            InputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(getCompressedFile(file)),BUFFER_SIZE);
+                try {
+                    IOUtils.copy(in,out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * Name of the file that a compressed report ends up in.
+     */
+    static File getCompressedFile(File file) {
+        return new File(file.getPath()+".gz");
+    }
+
+    private static String formatTime(long ms) {
+        return String.valueOf(ms/1000.0);
+    }
+
+    private static synchronized String getHostName() {
+        if (hostName==null) {
+            try {
+                hostName = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                hostName = "localhost";
+            }
+        }
+        return hostName;
+    }
+
+    private static String hostName;
+
+    /**
+     * Escapes characters that are special in XML text and attribute values,
+     * and drops those that XML can't represent.
+     */
+    private static final class EscapingWriter extends FilterWriter {
+        /**
+         * Attribute values need whitespace escaped, or else they'll be normalized into a space.
+         */
+        private final boolean attribute;
+
+        EscapingWriter(Writer out, boolean attribute) {
+            super(out);
+            this.attribute = attribute;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            switch (c) {
+            case '<':   out.write("&lt;");   break;
+            case '>':   out.write("&gt;");   break;
+            case '&':   out.write("&amp;");  break;
+            case '"':   out.write("&quot;"); break;
+            case '\r':     // XML parsers would turn it into '\n' otherwise
+                out.write("&#13;");
+                break;
+            case '\n':
+            case '\t':
+                if (attribute)  out.write("&#"+c+";");
+                else            out.write(c);
+                break;
+            default:
+                if (c>=0x20 && c!=0xFFFE && c!=0xFFFF)
+                    out.write(c);
+            }
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) throws IOException {
+            for (int i=0; i<len; i++)
+                write(buf[off+i]);
+        }
+
+        @Override
+        public void write(String s, int off, int len) throws IOException {
+            for (int i=0; i<len; i++)
+                write(s.charAt(off+i));
+        }
+
+        @Override
+        public void close() {
+            // the underlying writer is closed separately
+        }
+    }
+
+    /**
+     * Blank space reserved in the start tag for the counts, which is more than enough for them.
+     */
+    private static final int COUNTS_SPACE = 128;
+
+    private static final int BUFFER_SIZE = 64*1024;
+}
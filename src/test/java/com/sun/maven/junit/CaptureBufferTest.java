@@ -0,0 +1,120 @@
+package com.sun.maven.junit;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class CaptureBufferTest {
+    @Test
+    public void inMemory() throws IOException {
+        CaptureBuffer b = new CaptureBuffer(1024,0);
+        b.write("hello ".getBytes());
+        b.write('!');
+        assertEquals(7, b.size());
+        assertEquals("hello !", b.toString());
+        b.close();
+    }
+
+    @Test
+    public void spillToDisk() throws IOException {
+        CaptureBuffer b = new CaptureBuffer(16,0);
+        String expected = write(b, 1000);
+        assertEquals(expected.length(), b.size());
+        assertEquals(expected, b.toString());
+        // can be read more than once
+        assertEquals(expected, b.toString());
+        b.close();
+    }
+
+    @Test
+    public void writeAfterSpillIsKept() throws IOException {
+        CaptureBuffer b = new CaptureBuffer(10,0);
+        b.write("0123456789".getBytes());
+        assertEquals("0123456789", b.toString());   // still in memory
+        b.write("abc".getBytes());                  // this one goes to the disk
+        assertEquals("0123456789abc", b.toString());
+        b.write("def".getBytes());
+        assertEquals("0123456789abcdef", b.toString());
+        b.close();
+    }
+
+    @Test
+    public void truncateInMemory() throws IOException {
+        CaptureBuffer b = new CaptureBuffer(1024,10);
+        String data = write(b, 100);
+        assertTruncated(data, b);
+        b.close();
+    }
+
+    @Test
+    public void truncateOnDisk() throws IOException {
+        CaptureBuffer b = new CaptureBuffer(16,10);
+        String data = write(b, 100);
+        assertTruncated(data, b);
+        b.close();
+    }
+
+    @Test
+    public void notTruncatedAtTheLimit() throws IOException {
+        CaptureBuffer b = new CaptureBuffer(1024,10);
+        String data = write(b, 10);
+        assertEquals(data, b.toString());
+        b.close();
+    }
+
+    @Test
+    public void decodeToWriter() throws IOException {
+        // enough to cross the decoder's buffer boundary in the middle of multi-byte characters
+        StringBuilder s = new StringBuilder();
+        for (int i=0; i<5000; i++)
+            s.append("h\u00e9llo \u2192 ");
+        String text = new String(s.toString().getBytes(Charset.defaultCharset()), Charset.defaultCharset());
+
+        CaptureBuffer b = new CaptureBuffer(1000,0);
+        byte[] bytes = text.getBytes(Charset.defaultCharset());
+        for (int i=0; i<bytes.length; i+=777)
+            b.write(bytes, i, Math.min(777, bytes.length-i));
+
+        StringWriter w = new StringWriter();
+        b.writeTo(w);
+        assertEquals(text, w.toString());
+        b.close();
+    }
+
+    @Test
+    public void writesAfterCloseAreIgnored() throws IOException {
+        CaptureBuffer b = new CaptureBuffer(16,0);
+        write(b, 100);
+        b.close();
+        b.write("more".getBytes());
+        assertEquals(100, b.size());
+    }
+
+    private static void assertTruncated(String data, CaptureBuffer b) throws IOException {
+        assertEquals(data.length(), b.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.writeTo(out);
+        String s = out.toString();
+        assertTrue(s, s.startsWith(data.substring(0,5)));
+        assertTrue(s, s.endsWith(data.substring(data.length()-5)));
+        assertTrue(s, s.contains("... "+(data.length()-10)+" bytes omitted ..."));
+    }
+
+    /**
+     * Writes the given number of bytes in small chunks.
+     */
+    private static String write(CaptureBuffer b, int len) throws IOException {
+        StringBuilder s = new StringBuilder();
+        for (int i=0; i<len; i++)
+            s.append((char)('a'+i%26));
+        byte[] bytes = s.toString().getBytes();
+        for (int i=0; i<len; i+=7)
+            b.write(bytes, i, Math.min(7, len-i));
+        return s.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClassDataArchiveTest {
+    private static final String TRAIN = "-XX:ArchiveClassesAtExit=";
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("cds","");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void trainedArchiveIsUsed() throws IOException {
+        ClassDataArchive a = new ClassDataArchive(dir, "foo.jar", "-Xmx1g");
+        train(a);
+        assertTrue(a.getJvmArguments().get(0).startsWith("-XX:SharedArchiveFile="));
+        // another archive with the same key picks it up
+        assertTrue(new ClassDataArchive(dir, "foo.jar", "-Xmx1g").getJvmArguments().get(0).startsWith("-XX:SharedArchiveFile="));
+    }
+
+    @Test
+    public void onlyOneTrainer() {
+        ClassDataArchive a = new ClassDataArchive(dir, "foo.jar", "");
+        assertTrue(a.getJvmArguments().get(0).startsWith(TRAIN));
+        assertTrue(a.getJvmArguments().isEmpty());
+    }
+
+    @Test
+    public void oldArchivesAreDeleted() throws IOException {
+        train(new ClassDataArchive(dir, "foo.jar", "-Xmx1g"));
+        FileUtils.writeStringToFile(new File(dir,"unfinished.jsa.tmp"),"data");
+        FileUtils.writeStringToFile(new File(dir,"other.txt"),"data");
+        assertEquals(3, dir.list().length);
+
+        train(new ClassDataArchive(dir, "foo.jar", "-Xmx2g"));
+        List<String> files = Arrays.asList(dir.list());
+        assertEquals(2, files.size());
+        assertTrue(files.contains("other.txt"));
+    }
+
+    @Test
+    public void nothingIsDeletedWithoutNewArchive() throws IOException {
+        train(new ClassDataArchive(dir, "foo.jar", "-Xmx1g"));
+        new ClassDataArchive(dir, "foo.jar", "-Xmx2g").onExit();
+        assertEquals(1, dir.list().length);
+    }
+
+    /**
+     * Pretends that the JVM launched with the arguments dumped an archive and exited.
+     */
+    private void train(ClassDataArchive a) throws IOException {
+        String arg = a.getJvmArguments().get(0);
+        assertTrue(arg.startsWith(TRAIN));
+        FileUtils.writeStringToFile(new File(arg.substring(TRAIN.length())),"archive");
+        a.onExit();
+    }
+}
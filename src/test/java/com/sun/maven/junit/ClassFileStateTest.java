@@ -0,0 +1,76 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ClassFileStateTest {
+    private File dir, db, classFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("state","");
+        dir.delete();
+        dir.mkdirs();
+        db = new File(dir,"state.db");
+        classFile = new File(dir,"FooTest.class");
+        FileUtils.writeStringToFile(classFile,"version 1");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void unknownClassHasChanged() throws IOException {
+        assertTrue(new ClassFileState(db).load().hasChanged("FooTest.class",classFile));
+    }
+
+    @Test
+    public void unchanged() throws IOException {
+        record();
+        assertFalse(new ClassFileState(db).load().hasChanged("FooTest.class",classFile));
+    }
+
+    @Test
+    public void recompiledToTheSameBytes() throws IOException {
+        record();
+        FileUtils.writeStringToFile(classFile,"version 1");
+        classFile.setLastModified(classFile.lastModified()+10000);
+        assertFalse(new ClassFileState(db).load().hasChanged("FooTest.class",classFile));
+    }
+
+    @Test
+    public void sameSizeDifferentContents() throws IOException {
+        record();
+        FileUtils.writeStringToFile(classFile,"version 2");
+        classFile.setLastModified(classFile.lastModified()+10000);
+        assertTrue(new ClassFileState(db).load().hasChanged("FooTest.class",classFile));
+    }
+
+    @Test
+    public void differentSize() throws IOException {
+        record();
+        FileUtils.writeStringToFile(classFile,"version 10");
+        assertTrue(new ClassFileState(db).load().hasChanged("FooTest.class",classFile));
+    }
+
+    @Test
+    public void oldFormatIsIgnored() throws IOException {
+        FileUtils.writeStringToFile(db,"JCS1 and whatever");
+        assertTrue(new ClassFileState(db).load().hasChanged("FooTest.class",classFile));
+    }
+
+    private void record() throws IOException {
+        ClassFileState s = new ClassFileState(db).load();
+        s.update("FooTest.class",classFile);
+        s.save();
+    }
+}
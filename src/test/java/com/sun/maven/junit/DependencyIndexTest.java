@@ -0,0 +1,219 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DependencyIndexTest {
+    static class Leaf {}
+    static class Middle { Leaf leaf; }
+    static class Top { Object create() { return new Middle(); } }
+    static class Generic { List<Leaf> leaves; }
+    static class ArrayUser { Object create() { return new Leaf[0]; } }
+    static class Unrelated {}
+
+    private static final List<Class<?>> FIXTURES = Arrays.<Class<?>>asList(
+            Leaf.class, Middle.class, Top.class, Generic.class, ArrayUser.class, Unrelated.class);
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("index","");
+        dir.delete();
+        for (Class<?> c : FIXTURES)
+            FileUtils.copyFile(classFileOf(c), getCopy(c));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void referencesThroughFieldType() throws IOException {
+        assertTrue(DependencyIndex.parseReferences(classFileOf(Middle.class)).contains(Leaf.class.getName()));
+    }
+
+    @Test
+    public void referencesThroughInstantiation() throws IOException {
+        assertTrue(DependencyIndex.parseReferences(classFileOf(Top.class)).contains(Middle.class.getName()));
+    }
+
+    @Test
+    public void referencesThroughGenericSignature() throws IOException {
+        assertTrue(DependencyIndex.parseReferences(classFileOf(Generic.class)).contains(Leaf.class.getName()));
+    }
+
+    @Test
+    public void referencesThroughArrayType() throws IOException {
+        assertTrue(DependencyIndex.parseReferences(classFileOf(ArrayUser.class)).contains(Leaf.class.getName()));
+    }
+
+    @Test
+    public void noReferencesFromUnrelatedClass() throws IOException {
+        assertFalse(DependencyIndex.parseReferences(classFileOf(Unrelated.class)).contains(Leaf.class.getName()));
+    }
+
+    @Test
+    public void notAClassFile() throws IOException {
+        File f = new File(dir,"foo.class");
+        FileUtils.writeStringToFile(f,"not a class file");
+        assertTrue(DependencyIndex.parseReferences(f).isEmpty());
+    }
+
+    @Test
+    public void nothingChanged() throws IOException {
+        DependencyIndex old = build(null);
+        assertTrue(build(old).getAffectedClasses(old).isEmpty());
+    }
+
+    @Test
+    public void changeAffectsDependantsTransitively() throws IOException {
+        DependencyIndex old = build(null);
+        touch(Leaf.class);
+        assertEquals(names(Leaf.class, Middle.class, Top.class, Generic.class, ArrayUser.class),
+                build(old).getAffectedClasses(old));
+    }
+
+    @Test
+    public void changeDoesNotAffectDependencies() throws IOException {
+        DependencyIndex old = build(null);
+        touch(Top.class);
+        assertEquals(names(Top.class), build(old).getAffectedClasses(old));
+    }
+
+    @Test
+    public void deletionAffectsDependants() throws IOException {
+        DependencyIndex old = build(null);
+        assertTrue(getCopy(Leaf.class).delete());
+        assertEquals(names(Middle.class, Top.class, Generic.class, ArrayUser.class),
+                build(old).getAffectedClasses(old));
+    }
+
+    @Test
+    public void deletionIsOnlySeenOnce() throws IOException {
+        DependencyIndex old = build(null);
+        assertTrue(getCopy(Leaf.class).delete());
+        DependencyIndex idx = build(old);
+        assertTrue(build(idx).getAffectedClasses(idx).isEmpty());
+    }
+
+    @Test
+    public void newClassIsAffected() throws IOException {
+        assertTrue(getCopy(Unrelated.class).delete());
+        DependencyIndex old = build(null);
+        FileUtils.copyFile(classFileOf(Unrelated.class), getCopy(Unrelated.class));
+        assertEquals(names(Unrelated.class), build(old).getAffectedClasses(old));
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        File f = new File(dir,"deps.idx");
+        build(null).save(f);
+        DependencyIndex old = DependencyIndex.load(f);
+        assertNotNull(old);
+
+        // dependencies reused from the loaded index must survive the round trip
+        touch(Leaf.class);
+        assertEquals(names(Leaf.class, Middle.class, Top.class, Generic.class, ArrayUser.class),
+                build(old).getAffectedClasses(old));
+    }
+
+    @Test
+    public void loadBrokenIndex() throws IOException {
+        File f = new File(dir,"deps.idx");
+        FileUtils.writeStringToFile(f,"garbage");
+        assertNull(DependencyIndex.load(f));
+        assertNull(DependencyIndex.load(new File(dir,"no-such-file")));
+    }
+
+    @Test
+    public void signature() throws IOException {
+        DependencyIndex a = DependencyIndex.build(Collections.singleton(dir),"a",null);
+        assertTrue(a.isCompatibleWith(DependencyIndex.build(Collections.singleton(dir),"a",null)));
+        assertFalse(a.isCompatibleWith(DependencyIndex.build(Collections.singleton(dir),"b",null)));
+    }
+
+    @Test
+    public void mergeTakesInTestedChanges() throws IOException {
+        DependencyIndex old = build(null);
+        touch(Leaf.class);
+        touch(Unrelated.class);
+        DependencyIndex merged = build(old).mergeTested(old,
+                names(Top.class, Generic.class, Unrelated.class), names(Top.class, Generic.class));
+        // the change of Leaf is covered by the tests that ran, but Unrelated didn't run
+        assertEquals(names(Unrelated.class), build(merged).getAffectedClasses(merged));
+    }
+
+    @Test
+    public void mergeKeepsChangesNotFullyTested() throws IOException {
+        DependencyIndex old = build(null);
+        touch(Leaf.class);
+        DependencyIndex merged = build(old).mergeTested(old, names(Top.class, Generic.class), names(Top.class));
+        assertEquals(names(Leaf.class, Middle.class, Top.class, Generic.class, ArrayUser.class),
+                build(merged).getAffectedClasses(merged));
+    }
+
+    @Test
+    public void mergeKeepsUntestedNewClass() throws IOException {
+        assertTrue(getCopy(Unrelated.class).delete());
+        DependencyIndex old = build(null);
+        FileUtils.copyFile(classFileOf(Unrelated.class), getCopy(Unrelated.class));
+        DependencyIndex merged = build(old).mergeTested(old, names(Unrelated.class), names());
+        assertEquals(names(Unrelated.class), build(merged).getAffectedClasses(merged));
+    }
+
+    @Test
+    public void mergeKeepsUntestedDeletion() throws IOException {
+        DependencyIndex old = build(null);
+        assertTrue(getCopy(Leaf.class).delete());
+        DependencyIndex merged = build(old).mergeTested(old, names(Top.class, Generic.class), names(Top.class));
+        // Top covers Middle, and nothing tests ArrayUser
+        assertEquals(names(Generic.class), build(merged).getAffectedClasses(merged));
+    }
+
+    private DependencyIndex build(DependencyIndex previous) throws IOException {
+        return DependencyIndex.build(Collections.singleton(dir),"sig",previous);
+    }
+
+    /**
+     * Changes the contents of a class file without breaking its constant pool.
+     */
+    private void touch(Class<?> c) throws IOException {
+        FileOutputStream o = new FileOutputStream(getCopy(c),true);
+        try {
+            o.write(0);
+        } finally {
+            o.close();
+        }
+    }
+
+    private File getCopy(Class<?> c) {
+        return new File(dir, c.getName().replace('.','/')+".class");
+    }
+
+    private static File classFileOf(Class<?> c) {
+        String name = c.getName();
+        return FileUtils.toFile(c.getResource(name.substring(name.lastIndexOf('.')+1)+".class"));
+    }
+
+    private static Set<String> names(Class<?>... classes) {
+        Set<String> r = new HashSet<String>();
+        for (Class<?> c : classes)
+            r.add(c.getName());
+        return r;
+    }
+}
@@ -0,0 +1,91 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DurationHistoryTest {
+    private File dir, reportDir, classDir;
+    private final long now = System.currentTimeMillis()/1000*1000;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("history","");
+        dir.delete();
+        reportDir = new File(dir,"reports");
+        classDir = new File(dir,"classes");
+        reportDir.mkdirs();
+        FileUtils.writeStringToFile(new File(classDir,"org/acme/FooTest.class"),"");
+        FileUtils.writeStringToFile(new File(classDir,"org/acme/BarTest.class"),"");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void reportPerClass() throws IOException {
+        report("org.acme.FooTest.0.xml", now, "org.acme.FooTest", 1.5, 2.0);
+        report("org.acme.BarTest.1.xml", now, "org.acme.BarTest", 0.25);
+        DurationHistory h = DurationHistory.fromReports(reportDir,classDir);
+        assertEquals(3500, h.estimate("org.acme.FooTest"));
+        assertEquals(250, h.estimate("org.acme.BarTest"));
+    }
+
+    @Test
+    public void reportsPerMethodAreAddedUp() throws IOException {
+        // what the older versions wrote, one after another as the tests finished
+        report("test1.0.xml", now-60000, "org.acme.FooTest", 30.0);
+        report("test2.1.xml", now-30000, "org.acme.FooTest", 30.0);
+        report("test3.2.xml", now, "org.acme.FooTest", 30.0);
+        assertEquals(90000, DurationHistory.fromReports(reportDir,classDir).estimate("org.acme.FooTest"));
+    }
+
+    @Test
+    public void partsOfSplitClassAreAddedUp() throws IOException {
+        report("org.acme.FooTest.fork1-0.xml", now, "org.acme.FooTest", 5.0);
+        report("org.acme.FooTest.fork2-0.xml", now-1000, "org.acme.FooTest", 5.0);
+        assertEquals(10000, DurationHistory.fromReports(reportDir,classDir).estimate("org.acme.FooTest"));
+    }
+
+    @Test
+    public void earlierRunsAreIgnored() throws IOException {
+        report("org.acme.FooTest.0.xml", now-3600000, "org.acme.FooTest", 8.0);
+        report("org.acme.FooTest.3.xml", now, "org.acme.FooTest", 2.0);
+        assertEquals(2000, DurationHistory.fromReports(reportDir,classDir).estimate("org.acme.FooTest"));
+    }
+
+    @Test
+    public void aggregatedReportsAreIgnored() throws IOException {
+        report("org.acme.FooTest.0.xml", now, "org.acme.FooTest", 2.0);
+        report(DurationHistory.AGGREGATE_PREFIX+"all.xml", now, "org.acme.FooTest", 2.0);
+        assertEquals(2000, DurationHistory.fromReports(reportDir,classDir).estimate("org.acme.FooTest"));
+    }
+
+    @Test
+    public void missingClassesAreIgnored() throws IOException {
+        report("org.acme.FooTest.0.xml", now, "org.acme.FooTest", 2.0);
+        report("org.acme.GoneTest.1.xml", now, "org.acme.GoneTest", 60.0);
+        DurationHistory h = DurationHistory.fromReports(reportDir,classDir);
+        assertTrue(h.isKnown("org.acme.FooTest"));
+        assertFalse(h.isKnown("org.acme.GoneTest"));
+    }
+
+    private void report(String name, long timestamp, String className, double... times) throws IOException {
+        StringBuilder b = new StringBuilder("<testsuite name='"+className+"'>");
+        for (int i=0; i<times.length; i++)
+            b.append("<testcase classname='").append(className).append("' name='test").append(i)
+             .append("' time='").append(times[i]).append("'/>");
+        b.append("</testsuite>");
+        File f = new File(reportDir,name);
+        FileUtils.writeStringToFile(f,b.toString());
+        f.setLastModified(timestamp);
+    }
+}
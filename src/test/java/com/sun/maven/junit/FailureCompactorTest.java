@@ -0,0 +1,115 @@
+package com.sun.maven.junit;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FailureCompactorTest {
+    private static final StackTraceElement USER = new StackTraceElement("com.acme.FooTest","testFoo","FooTest.java",10);
+    private static final StackTraceElement ASSERT = new StackTraceElement("junit.framework.Assert","fail","Assert.java",47);
+    private static final StackTraceElement REFLECT = new StackTraceElement("java.lang.reflect.Method","invoke","Method.java",498);
+
+    @Test
+    public void frameworkFramesAreTrimmed() {
+        FailureCompactor c = new FailureCompactor(FailureCompactor.DEFAULT_FILTERS);
+        Throwable t = c.compact(failure("boom", ASSERT, USER, REFLECT));
+        assertEquals(Arrays.asList(USER), Arrays.asList(t.getStackTrace()));
+    }
+
+    @Test
+    public void nothingIsTrimmedWithoutFilters() {
+        FailureCompactor c = new FailureCompactor(Collections.<String>emptyList());
+        Throwable t = c.compact(failure("boom", ASSERT, USER, REFLECT));
+        assertEquals(Arrays.asList(ASSERT, USER, REFLECT), Arrays.asList(t.getStackTrace()));
+    }
+
+    @Test
+    public void traceOfOnlyFrameworkFramesIsKept() {
+        FailureCompactor c = new FailureCompactor(FailureCompactor.DEFAULT_FILTERS);
+        Throwable t = c.compact(failure("boom", ASSERT, REFLECT));
+        assertEquals(Arrays.asList(ASSERT, REFLECT), Arrays.asList(t.getStackTrace()));
+    }
+
+    @Test
+    public void causesAreTrimmed() {
+        FailureCompactor c = new FailureCompactor(FailureCompactor.DEFAULT_FILTERS);
+        Throwable t = failure("outer", USER, REFLECT);
+        t.initCause(failure("inner", USER, ASSERT));
+        Throwable r = c.compact(t);
+        assertNotNull(r.getCause());
+        assertEquals(Arrays.asList(USER), Arrays.asList(r.getCause().getStackTrace()));
+        assertTrue(r.getCause().getMessage().contains("inner"));
+    }
+
+    @Test
+    public void identicalFailuresAreShared() {
+        FailureCompactor c = new FailureCompactor(FailureCompactor.DEFAULT_FILTERS);
+        Throwable a = c.compact(failure("boom", USER, REFLECT));
+        Throwable b = c.compact(failure("boom", USER, ASSERT));
+        assertSame(a, b);
+    }
+
+    @Test
+    public void differentMessagesAreNotShared() {
+        FailureCompactor c = new FailureCompactor(FailureCompactor.DEFAULT_FILTERS);
+        Throwable a = c.compact(failure("boom", USER));
+        Throwable b = c.compact(failure("bang", USER));
+        assertFalse(a==b);
+        assertTrue(a.getMessage().contains("boom"));
+        assertTrue(b.getMessage().contains("bang"));
+        // but the frames are
+        assertSame(a.getStackTrace()[0], b.getStackTrace()[0]);
+    }
+
+    @Test
+    public void differentCausesAreNotShared() {
+        FailureCompactor c = new FailureCompactor(FailureCompactor.DEFAULT_FILTERS);
+        Throwable x = failure("boom", USER);
+        x.initCause(failure("cause1", USER));
+        Throwable y = failure("boom", USER);
+        y.initCause(failure("cause2", USER));
+        assertFalse(c.compact(x)==c.compact(y));
+    }
+
+    @Test
+    public void repeatedFailuresSerializeCompactly() throws IOException {
+        FailureCompactor c = new FailureCompactor(FailureCompactor.DEFAULT_FILTERS);
+        List<Throwable> compacted = new ArrayList<Throwable>();
+        List<Throwable> plain = new ArrayList<Throwable>();
+        for (int i=0; i<100; i++) {
+            // each failure has its own copy of the trace, just like the real ones do
+            compacted.add(c.compact(failure("broken fixture", deepTrace())));
+            plain.add(failure("broken fixture", deepTrace()));
+        }
+        assertTrue(sizeOf(compacted)*10 < sizeOf(plain));
+    }
+
+    private static StackTraceElement[] deepTrace() {
+        StackTraceElement[] trace = new StackTraceElement[50];
+        for (int i=0; i<trace.length; i++)
+            trace[i] = new StackTraceElement("com.acme.Fixture"+i,"setUp","Fixture.java",i);
+        return trace;
+    }
+
+    private static Exception failure(String msg, StackTraceElement... trace) {
+        Exception e = new Exception(msg);
+        e.setStackTrace(trace);
+        return e;
+    }
+
+    private static int sizeOf(Object o) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(o);
+        oos.close();
+        return baos.size();
+    }
+}
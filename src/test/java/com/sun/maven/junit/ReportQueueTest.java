@@ -0,0 +1,72 @@
+package com.sun.maven.junit;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReportQueueTest {
+    @Test
+    public void jobsRunInOrder() throws IOException {
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        ReportQueue q = new ReportQueue(4);
+        for (int i=0; i<100; i++) {
+            final int n = i;
+            q.submit(new ReportQueue.Job() {
+                public void run() {
+                    done.add(n);
+                }
+            });
+        }
+        q.close();
+        assertEquals(100, done.size());
+        for (int i=0; i<100; i++)
+            assertEquals(i, (int)done.get(i));
+    }
+
+    @Test
+    public void failureIsReportedByFlush() throws IOException {
+        ReportQueue q = new ReportQueue(4);
+        q.submit(new ReportQueue.Job() {
+            public void run() throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        try {
+            q.flush();
+            fail();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        q.close();  // reported only once
+    }
+
+    @Test(timeout=10000)
+    public void errorDoesNotKillTheWriter() throws IOException {
+        final boolean[] ran = new boolean[1];
+        ReportQueue q = new ReportQueue(4);
+        q.submit(new ReportQueue.Job() {
+            public void run() {
+                throw new NoClassDefFoundError("Formatter");
+            }
+        });
+        try {
+            q.flush();
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+
+        q.submit(new ReportQueue.Job() {
+            public void run() {
+                ran[0] = true;
+            }
+        });
+        q.close();
+        assertTrue(ran[0]);
+    }
+}
@@ -0,0 +1,167 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Failure;
+import junit.framework.TestFailure;
+import junit.framework.TestResult;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultAggregatorTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("aggregator","");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void counts() throws IOException {
+        ResultAggregator a = new ResultAggregator(dir,100);
+        try {
+            a.add(new Result(3));
+            a.add(result(2,1,0));
+            a.add(result(4,0,2));
+            assertEquals(9, a.getTotalRun());
+            assertEquals(1, a.getFailureCount());
+            assertEquals(2, a.getErrorCount());
+            assertFalse(a.isSuccess());
+        } finally {
+            a.close();
+        }
+    }
+
+    @Test
+    public void success() throws IOException {
+        ResultAggregator a = new ResultAggregator(dir,100);
+        try {
+            a.add(new Result(5));
+            assertTrue(a.isSuccess());
+            TestResult r = a.toTestResult();
+            assertEquals(5, r.runCount());
+            assertTrue(r.wasSuccessful());
+        } finally {
+            a.close();
+        }
+    }
+
+    @Test
+    public void fitsInMemory() throws IOException {
+        ResultAggregator a = new ResultAggregator(dir,100);
+        try {
+            for (int i=0; i<100; i++)
+                a.add(result(1,1,0));
+            assertEquals(0, dir.list().length);
+        } finally {
+            a.close();
+        }
+    }
+
+    @Test
+    public void spillsBeyondTheLimit() throws IOException {
+        ResultAggregator a = new ResultAggregator(dir,100);
+        try {
+            for (int i=0; i<150; i++)
+                a.add(result(1,1,0));
+            assertEquals(150, a.getFailureCount());
+            assertEquals(1, dir.list().length);
+        } finally {
+            a.close();
+        }
+        // the temporary file goes away
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void spilledFailuresAreReadBack() throws IOException {
+        ResultAggregator a = new ResultAggregator(dir,2);
+        try {
+            for (int i=0; i<3; i++)
+                a.add(single("failure"+i, new AssertionError("failed "+i), false));
+            for (int i=0; i<3; i++)
+                a.add(single("error"+i, new IllegalStateException("broken "+i), true));
+
+            TestResult r = a.toTestResult();
+            assertEquals(6, r.runCount());
+            List<TestFailure> all = Collections.list(r.errors());
+            assertEquals(6, all.size());
+            // failures come before errors, whether they were kept in memory or not
+            for (int i=0; i<3; i++) {
+                assertEquals("failure"+i, all.get(i).failedTest().toString());
+                assertEquals("java.lang.AssertionError: failed "+i, all.get(i).thrownException().toString());
+            }
+            for (int i=0; i<3; i++) {
+                assertEquals("error"+i, all.get(3+i).failedTest().toString());
+                assertEquals("java.lang.IllegalStateException: broken "+i, all.get(3+i).thrownException().toString());
+            }
+        } finally {
+            a.close();
+        }
+    }
+
+    @Test
+    public void spilledStackTraceIsKept() throws IOException {
+        ResultAggregator a = new ResultAggregator(dir,0);
+        try {
+            Throwable t = new AssertionError("failed");
+            a.add(single("foo", t, false));
+
+            TestResult r = a.toTestResult();
+            Throwable restored = Collections.list(r.errors()).get(0).thrownException();
+            assertEquals(print(t), print(restored));
+        } finally {
+            a.close();
+        }
+    }
+
+    @Test
+    public void readTwice() throws IOException {
+        ResultAggregator a = new ResultAggregator(dir,0);
+        try {
+            a.add(result(1,1,1));
+            assertEquals(2, Collections.list(a.toTestResult().errors()).size());
+            assertEquals(2, Collections.list(a.toTestResult().errors()).size());
+        } finally {
+            a.close();
+        }
+    }
+
+    private static Result result(int run, int failures, int errors) {
+        Result r = new Result(run);
+        for (int i=0; i<failures; i++)
+            r.failures.add(new Failure("failure"+i, new AssertionError("failed")));
+        for (int i=0; i<errors; i++)
+            r.errors.add(new Failure("error"+i, new IllegalStateException("broken")));
+        return r;
+    }
+
+    private static Result single(String name, Throwable t, boolean error) {
+        Result r = new Result(1);
+        List<Failure> list = error ? r.errors : r.failures;
+        list.add(new Failure(name,t));
+        return r;
+    }
+
+    private static String print(Throwable t) {
+        StringWriter w = new StringWriter();
+        t.printStackTrace(new PrintWriter(w));
+        return w.toString();
+    }
+}
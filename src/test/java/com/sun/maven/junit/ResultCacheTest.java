@@ -0,0 +1,148 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Failure;
+import com.sun.maven.junit.Result.Timing;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    private File dir, cacheDir, reportDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("cache","");
+        dir.delete();
+        cacheDir = new File(dir,"cache");
+        reportDir = new File(dir,"reports");
+        cacheDir.mkdirs();
+        reportDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void storeAndLookup() throws IOException {
+        ResultCache cache = new ResultCache(cacheDir, Long.MAX_VALUE, "env");
+        cache.store("Foo.class", passed("Foo"), reportDir);
+
+        File report = new File(reportDir,"Foo.0.xml");
+        report.delete();
+        Result r = cache.lookup("Foo.class", reportDir);
+        assertNotNull(r);
+        assertEquals(1, r.totalRun);
+        assertEquals("Foo", r.timings.get(0).className);
+        // the report comes back from the cache
+        assertEquals("<report of Foo/>", FileUtils.readFileToString(report));
+    }
+
+    @Test
+    public void miss() throws IOException {
+        ResultCache cache = new ResultCache(cacheDir, Long.MAX_VALUE, "env");
+        assertNull(cache.lookup("Foo.class", reportDir));
+        cache.store("Foo.class", passed("Foo"), reportDir);
+        assertNull(cache.lookup("Bar.class", reportDir));
+        assertNull(cache.lookup("Foo.class#testA", reportDir));
+    }
+
+    @Test
+    public void environmentIsPartOfTheKey() throws IOException {
+        new ResultCache(cacheDir, Long.MAX_VALUE, "env1").store("Foo.class", passed("Foo"), reportDir);
+        assertNull(new ResultCache(cacheDir, Long.MAX_VALUE, "env2").lookup("Foo.class", reportDir));
+        assertNotNull(new ResultCache(cacheDir, Long.MAX_VALUE, "env1").lookup("Foo.class", reportDir));
+    }
+
+    @Test
+    public void failuresAreNotCached() throws IOException {
+        ResultCache cache = new ResultCache(cacheDir, Long.MAX_VALUE, "env");
+        Result r = passed("Foo");
+        r.failures.add(new Failure("testA", new Exception()));
+        cache.store("Foo.class", r, reportDir);
+        assertNull(cache.lookup("Foo.class", reportDir));
+        assertEquals(0, cacheDir.list().length);
+    }
+
+    @Test
+    public void resultsWithoutReportsAreNotCached() throws IOException {
+        ResultCache cache = new ResultCache(cacheDir, Long.MAX_VALUE, "env");
+        cache.store("Foo.class", new Result(0), reportDir);
+        assertNull(cache.lookup("Foo.class", reportDir));
+    }
+
+    @Test
+    public void corruptedEntryIsDiscarded() throws IOException {
+        ResultCache cache = new ResultCache(cacheDir, Long.MAX_VALUE, "env");
+        cache.store("Foo.class", passed("Foo"), reportDir);
+        File entry = cacheDir.listFiles()[0];
+        FileUtils.writeStringToFile(new File(entry,"result.ser"),"garbage");
+
+        assertNull(cache.lookup("Foo.class", reportDir));
+        assertFalse(entry.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws IOException {
+        ResultCache cache = new ResultCache(cacheDir, Long.MAX_VALUE, "env");
+        cache.store("Foo.class", passed("Foo"), reportDir);
+        cache.store("Bar.class", passed("Bar"), reportDir);
+        long total = FileUtils.sizeOfDirectory(cacheDir);
+        cache.evict();
+        assertEquals(2, cacheDir.list().length);   // within the limit
+
+        long old = System.currentTimeMillis()-60*1000;
+        for (File e : cacheDir.listFiles())
+            e.setLastModified(old);
+        assertNotNull(cache.lookup("Foo.class", reportDir));   // marks Foo as recently used
+
+        cache = new ResultCache(cacheDir, total-1, "env");
+        cache.evict();
+        assertEquals(1, cacheDir.list().length);
+        assertNotNull(cache.lookup("Foo.class", reportDir));
+        assertNull(cache.lookup("Bar.class", reportDir));
+    }
+
+    @Test
+    public void classpathDigest() throws IOException {
+        File classes = new File(dir,"classes");
+        FileUtils.writeStringToFile(new File(classes,"a/A.class"),"A");
+        File jar1 = new File(dir,"1/lib.jar");
+        File jar2 = new File(dir,"2/lib.jar");
+        FileUtils.writeStringToFile(jar1,"jar");
+        FileUtils.writeStringToFile(jar2,"jar");
+
+        String d1 = digest(classes.getPath(), jar1.getPath());
+        // the same jar file at a different location
+        assertEquals(d1, digest(classes.getPath(), jar2.getPath()));
+
+        FileUtils.writeStringToFile(jar2,"changed");
+        assertFalse(d1.equals(digest(classes.getPath(), jar2.getPath())));
+
+        FileUtils.writeStringToFile(new File(classes,"a/A.class"),"B");
+        assertFalse(d1.equals(digest(classes.getPath(), jar1.getPath())));
+    }
+
+    private static String digest(String... classpath) throws IOException {
+        Digester d = new Digester();
+        ResultCache.digestClasspath(d, Arrays.asList(classpath));
+        return d.toString();
+    }
+
+    private Result passed(String className) throws IOException {
+        String report = className+".0.xml";
+        FileUtils.writeStringToFile(new File(reportDir,report), "<report of "+className+"/>");
+        Result r = new Result(1);
+        r.timings.add(new Timing(className,"testA",10,true));
+        r.reportFiles.add(report);
+        return r;
+    }
+}
@@ -0,0 +1,158 @@
+package com.sun.maven.junit;
+
+import com.sun.maven.junit.Result.Timing;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimingDatabaseTest {
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("timings","");
+        dir.delete();
+        file = new File(dir,"junit-timings.db");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void missingFile() {
+        assertTrue(new TimingDatabase(file,5).load().isEmpty());
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        TimingDatabase db = new TimingDatabase(file,5);
+        db.record(result(300, new Timing("Foo","testA",100,true), new Timing("Foo","testB",150,false)), 3);
+        db.save();
+
+        TimingDatabase loaded = new TimingDatabase(file,5).load();
+        TimingDatabase.Entry e = loaded.get("Foo");
+        assertNotNull(e);
+        assertEquals(300, e.getDuration());
+        assertFalse(e.success);
+        assertEquals(3, e.forkId);
+
+        List<String> names = new ArrayList<String>(e.tests.keySet());
+        assertEquals("testA", names.get(0));
+        assertEquals("testB", names.get(1));
+        assertEquals(100, e.tests.get("testA").getDuration());
+        assertTrue(e.tests.get("testA").success);
+        assertFalse(e.tests.get("testB").success);
+        assertNull(loaded.get("Bar"));
+    }
+
+    @Test
+    public void durationIsAveragedOverHistory() {
+        TimingDatabase db = new TimingDatabase(file,2);
+        db.record(result(0, new Timing("Foo","testA",100,true)), 0);
+        db.record(result(0, new Timing("Foo","testA",200,true)), 0);
+        db.record(result(0, new Timing("Foo","testA",400,true)), 0);
+        assertEquals(300, db.get("Foo").getDuration());
+        assertEquals(300, db.get("Foo").tests.get("testA").getDuration());
+    }
+
+    @Test
+    public void historySurvivesSaveAndLoad() throws IOException {
+        TimingDatabase db = new TimingDatabase(file,3);
+        for (int t : new int[]{100,200,300,400})
+            db.record(result(0, new Timing("Foo","testA",t,true)), 0);
+        db.save();
+
+        TimingDatabase loaded = new TimingDatabase(file,3).load();
+        loaded.record(result(0, new Timing("Foo","testA",500,true)), 0);
+        assertEquals(400, loaded.get("Foo").getDuration());
+    }
+
+    @Test
+    public void resultWithSeveralClasses() {
+        TimingDatabase db = new TimingDatabase(file,5);
+        db.record(result(1000, new Timing("Foo","testA",100,true), new Timing("Bar","testB",200,false)), 1);
+        // the wall clock time covers both, so each class gets the sum of its tests
+        assertEquals(100, db.get("Foo").getDuration());
+        assertEquals(200, db.get("Bar").getDuration());
+        assertTrue(db.get("Foo").success);
+        assertFalse(db.get("Bar").success);
+    }
+
+    @Test
+    public void partialRunKeepsClassDuration() {
+        TimingDatabase db = new TimingDatabase(file,5);
+        db.record(result(500, new Timing("Foo","testA",200,true), new Timing("Foo","testB",300,true)), 1);
+        db.recordTests(result(100, new Timing("Foo","testB",100,false)), 2);
+
+        TimingDatabase.Entry e = db.get("Foo");
+        assertEquals(500, e.getDuration());
+        assertEquals(200, e.tests.get("testB").getDuration());
+        assertFalse(e.success);
+
+        db.recordTests(result(100, new Timing("Foo","testB",100,true)), 2);
+        assertTrue(db.get("Foo").success);
+    }
+
+    @Test
+    public void timeoutIsFailure() throws IOException {
+        TimingDatabase db = new TimingDatabase(file,5);
+        db.record(result(100, new Timing("Foo","testA",100,true)), 1);
+        db.recordTimeout("Foo", 900, 2);
+        db.recordTimeout("Bar", -1, 2);
+        db.save();
+
+        db = new TimingDatabase(file,5).load();
+        TimingDatabase.Entry e = db.get("Foo");
+        assertFalse(e.success);
+        assertEquals(500, e.getDuration());
+        assertEquals(2, e.forkId);
+        assertFalse(db.get("Bar").success);
+        assertEquals(0, db.get("Bar").getDuration());
+    }
+
+    @Test
+    public void brokenFileIsIgnored() throws IOException {
+        TimingDatabase db = new TimingDatabase(file,5);
+        db.record(result(100, new Timing("Foo","testA",100,true)), 0);
+        db.save();
+
+        // truncated in the middle
+        byte[] data = FileUtils.readFileToByteArray(file);
+        byte[] half = new byte[data.length/2];
+        System.arraycopy(data,0,half,0,half.length);
+        FileUtils.writeByteArrayToFile(file,half);
+        assertTrue(new TimingDatabase(file,5).load().isEmpty());
+
+        FileUtils.writeStringToFile(file,"not a timing database");
+        assertTrue(new TimingDatabase(file,5).load().isEmpty());
+    }
+
+    @Test
+    public void toDurationHistory() {
+        TimingDatabase db = new TimingDatabase(file,5);
+        db.record(result(700, new Timing("Foo","testA",600,true)), 0);
+        DurationHistory h = db.toDurationHistory();
+        assertTrue(h.isKnown("Foo"));
+        assertEquals(700, h.estimate("Foo"));
+        assertFalse(h.isKnown("Bar"));
+    }
+
+    private static Result result(long duration, Timing... timings) {
+        Result r = new Result(timings.length);
+        r.duration = duration;
+        for (Timing t : timings)
+            r.timings.add(t);
+        return r;
+    }
+}
@@ -0,0 +1,175 @@
+package com.sun.maven.junit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class XmlReportWriterTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("reports","");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void countsAreFilledIn() throws Exception {
+        File f = new File(dir,"TEST-foo.xml");
+        XmlReportWriter w = new XmlReportWriter(f,"Foo",false);
+        w.startTestCase("Foo","testA",1500);
+        w.endTestCase();
+        w.startTestCase("Foo","testB",250);
+        w.failure(new AssertionError("boom"),false);
+        w.endTestCase();
+        w.startTestCase("Foo","testC",0);
+        w.failure(new IllegalStateException("bang"),true);
+        w.endTestCase();
+        w.close();
+
+        Element suite = parse(f).getDocumentElement();
+        assertEquals("testsuite", suite.getTagName());
+        assertEquals("Foo", suite.getAttribute("name"));
+        assertEquals("3", suite.getAttribute("tests"));
+        assertEquals("1", suite.getAttribute("failures"));
+        assertEquals("1", suite.getAttribute("errors"));
+        assertEquals(1.75, Double.parseDouble(suite.getAttribute("time")), 0.0001);
+        assertEquals(3, suite.getElementsByTagName("testcase").getLength());
+
+        Element failure = (Element)suite.getElementsByTagName("failure").item(0);
+        assertEquals("boom", failure.getAttribute("message"));
+        assertEquals(AssertionError.class.getName(), failure.getAttribute("type"));
+        Element error = (Element)suite.getElementsByTagName("error").item(0);
+        assertEquals(IllegalStateException.class.getName(), error.getAttribute("type"));
+    }
+
+    @Test
+    public void emptySuite() throws Exception {
+        File f = new File(dir,"TEST-empty.xml");
+        new XmlReportWriter(f,"Empty",false).close();
+
+        Element suite = parse(f).getDocumentElement();
+        assertEquals("0", suite.getAttribute("tests"));
+        assertEquals("0", suite.getAttribute("failures"));
+    }
+
+    @Test
+    public void specialCharactersAreEscaped() throws Exception {
+        String nasty = "<a href=\"x\">&amp;</a>\ttab\r\nline\u0001";
+        File f = new File(dir,"TEST-escape.xml");
+        XmlReportWriter w = new XmlReportWriter(f,"Suite<&>",false);
+        w.startTestCase("Foo","test\"quoted\"",10);
+        w.failure(new Exception(nasty),false);
+        CaptureBuffer out = new CaptureBuffer(1024,0);
+        out.write(nasty.getBytes());
+        w.output("system-out",out);
+        out.close();
+        w.endTestCase();
+        w.close();
+
+        Element suite = parse(f).getDocumentElement();
+        assertEquals("Suite<&>", suite.getAttribute("name"));
+        Element tc = (Element)suite.getElementsByTagName("testcase").item(0);
+        assertEquals("test\"quoted\"", tc.getAttribute("name"));
+        // attribute values keep their whitespace, and the control character that XML can't carry is dropped
+        String expected = nasty.substring(0,nasty.length()-1);
+        assertEquals(expected, ((Element)tc.getElementsByTagName("failure").item(0)).getAttribute("message"));
+        assertEquals(expected, tc.getElementsByTagName("system-out").item(0).getTextContent());
+    }
+
+    @Test
+    public void emptyOutputIsLeftOut() throws Exception {
+        File f = new File(dir,"TEST-out.xml");
+        XmlReportWriter w = new XmlReportWriter(f,"Foo",false);
+        w.startTestCase("Foo","testA",0);
+        CaptureBuffer out = new CaptureBuffer(1024,0);
+        w.output("system-out",out);
+        w.output("system-err",null);
+        out.close();
+        w.endTestCase();
+        w.close();
+
+        Document d = parse(f);
+        assertEquals(0, d.getElementsByTagName("system-out").getLength());
+        assertEquals(0, d.getElementsByTagName("system-err").getLength());
+    }
+
+    @Test
+    public void appendFragments() throws Exception {
+        File frag1 = new File(dir,"1.fragment");
+        XmlReportWriter w = new XmlReportWriter(frag1,null,false);
+        w.startTestCase("Foo","testA",1000);
+        w.endTestCase();
+        w.startTestCase("Foo","testB",1000);
+        w.failure(new Exception("multi\nline"),false);
+        w.endTestCase();
+        w.close();
+
+        File frag2 = new File(dir,"2.fragment");
+        w = new XmlReportWriter(frag2,null,false);
+        w.startTestCase("Bar","testC",500);
+        w.failure(new Exception("x"),true);
+        w.endTestCase();
+        w.close();
+        // the JVM writing this fragment got killed in the middle of a test case
+        FileUtils.writeStringToFile(frag2, FileUtils.readFileToString(frag2,"UTF-8")+"  <testcase classname=\"Bar\" name=\"testD\" time=\"1.0\">\n    <failure","UTF-8");
+
+        File f = new File(dir,"TEST-all.xml");
+        w = new XmlReportWriter(f,"all",false);
+        w.append(frag1);
+        w.append(frag2);
+        w.close();
+
+        Element suite = parse(f).getDocumentElement();
+        assertEquals("3", suite.getAttribute("tests"));
+        assertEquals("1", suite.getAttribute("failures"));
+        assertEquals("1", suite.getAttribute("errors"));
+        assertEquals(2.5, Double.parseDouble(suite.getAttribute("time")), 0.0001);
+        NodeList tcs = suite.getElementsByTagName("testcase");
+        assertEquals(3, tcs.getLength());
+        assertEquals("testC", ((Element)tcs.item(2)).getAttribute("name"));
+    }
+
+    @Test
+    public void compress() throws Exception {
+        File f = new File(dir,"TEST-foo.xml");
+        XmlReportWriter w = new XmlReportWriter(f,"Foo",true);
+        w.startTestCase("Foo","testA",0);
+        w.endTestCase();
+        w.close();
+
+        assertFalse(f.exists());
+        File gz = XmlReportWriter.getCompressedFile(f);
+        assertTrue(gz.exists());
+        InputStream in = new GZIPInputStream(new FileInputStream(gz));
+        try {
+            Document d = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+            assertEquals("1", d.getDocumentElement().getAttribute("tests"));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Document parse(File f) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(f);
+    }
+}